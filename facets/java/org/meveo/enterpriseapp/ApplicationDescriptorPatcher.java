@@ -0,0 +1,339 @@
+package org.meveo.enterpriseapp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.*;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.XMLEvent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adds, replaces and removes the web modules of META-INF/application.xml in a single streaming pass.
+ * <p>
+ * The modules to add are indexed by web-uri and by context-root. A module of the descriptor is buffered until
+ * its end, then looked up in both indexes: a module with the same web-uri, or another web-uri on the same
+ * context-root, is replaced in place by the added module, a removed web-uri is dropped with its indentation.
+ * Added modules that matched nothing are written after the last module, indented like it. Everything else
+ * is copied event by event, and the result is always encoded in UTF-8.
+ */
+public class ApplicationDescriptorPatcher implements UnaryOperator<byte[]> {
+    private static final Logger LOG = LoggerFactory.getLogger(ApplicationDescriptorPatcher.class);
+
+    private static final String MODULE = "module";
+    private static final String MODULE_ID_PREFIX = "war.meveo.";
+    private static final String WEB = "web";
+    private static final String EJB = "ejb";
+    private static final String WEB_URI = "web-uri";
+    private static final String CONTEXT_ROOT = "context-root";
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    private static final String DEFAULT_INDENTATION = LINE_SEPARATOR + "  ";
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newInstance();
+
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final Map<String, WebModule> addedByWebUri = new LinkedHashMap<>();
+    private final Map<String, WebModule> addedByContextRoot = new HashMap<>();
+    private final Set<String> removedWebUris = new HashSet<>();
+
+    /**
+     * Add the WAR of a module, or replace the module deployed with the same web-uri or context-root
+     *
+     * @param moduleCode code of the module
+     * @return this patcher
+     */
+    public ApplicationDescriptorPatcher add(String moduleCode) {
+        WebModule webModule = new WebModule(MODULE_ID_PREFIX + moduleCode, getWebUri(moduleCode), "/" + moduleCode);
+        removedWebUris.remove(webModule.webUri);
+        addedByWebUri.put(webModule.webUri, webModule);
+        addedByContextRoot.put(webModule.contextRoot, webModule);
+        return this;
+    }
+
+    /**
+     * Remove the WAR of a module
+     *
+     * @param moduleCode code of the module
+     * @return this patcher
+     */
+    public ApplicationDescriptorPatcher remove(String moduleCode) {
+        WebModule webModule = addedByWebUri.remove(getWebUri(moduleCode));
+        if (webModule != null) {
+            addedByContextRoot.remove(webModule.contextRoot);
+        }
+        removedWebUris.add(getWebUri(moduleCode));
+        return this;
+    }
+
+    /**
+     * @param descriptor content of META-INF/application.xml
+     * @return the patched content, encoded in UTF-8
+     * @throws IllegalArgumentException if the descriptor is not well-formed
+     */
+    @Override
+    public byte[] apply(byte[] descriptor) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(descriptor.length + 256 * addedByWebUri.size());
+        try {
+            XMLEventReader reader = INPUT_FACTORY.createXMLEventReader(new ByteArrayInputStream(descriptor));
+            XMLEventWriter writer = OUTPUT_FACTORY.createXMLEventWriter(output, StandardCharsets.UTF_8.name());
+            try {
+                new Pass(writer).run(reader);
+            } finally {
+                reader.close();
+                writer.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("Invalid application descriptor: " + e.getMessage(), e);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * @param descriptor content of META-INF/application.xml
+     * @return the uris of the web and EJB modules of the descriptor, except the module WARs added by patchers
+     * @throws IllegalArgumentException if the descriptor is not well-formed
+     */
+    public static List<String> getModuleUris(byte[] descriptor) {
+        List<String> moduleUris = new ArrayList<>();
+        try {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(descriptor));
+            try {
+                boolean addedModule = false;
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    String localName = reader.getLocalName();
+                    if (MODULE.equals(localName)) {
+                        String id = reader.getAttributeValue(null, "id");
+                        addedModule = id != null && id.startsWith(MODULE_ID_PREFIX);
+                    } else if (!addedModule && (WEB_URI.equals(localName) || EJB.equals(localName))) {
+                        moduleUris.add(reader.getElementText().trim());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("Invalid application descriptor: " + e.getMessage(), e);
+        }
+        return moduleUris;
+    }
+
+    private static String getWebUri(String moduleCode) {
+        return moduleCode + ".war";
+    }
+
+    private static class WebModule {
+        private final String id;
+        private final String webUri;
+        private final String contextRoot;
+
+        private WebModule(String id, String webUri, String contextRoot) {
+            this.id = id;
+            this.webUri = webUri;
+            this.contextRoot = contextRoot;
+        }
+    }
+
+    /*
+     * State of one patch of a descriptor
+     */
+    private class Pass {
+        private final XMLEventWriter writer;
+        private final Set<String> writtenWebUris = new HashSet<>();
+        private final List<XMLEvent> pendingWhitespace = new ArrayList<>();
+        private List<XMLEvent> moduleEvents;
+        private QName applicationName;
+        private String indentation = DEFAULT_INDENTATION;
+        private int depth;
+        private int moduleDepth;
+        private boolean moduleSeen;
+        private int added;
+        private int replaced;
+        private int removed;
+
+        private Pass(XMLEventWriter writer) {
+            this.writer = writer;
+        }
+
+        private void run(XMLEventReader reader) throws XMLStreamException {
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                if (moduleEvents != null) {
+                    bufferModule(event);
+                } else if (event.isStartDocument()) {
+                    StartDocument startDocument = (StartDocument) event;
+                    writer.add(startDocument.standaloneSet()
+                            ? EVENT_FACTORY.createStartDocument(StandardCharsets.UTF_8.name(),
+                                    startDocument.getVersion(), startDocument.isStandalone())
+                            : EVENT_FACTORY.createStartDocument(StandardCharsets.UTF_8.name(),
+                                    startDocument.getVersion()));
+                    writer.add(EVENT_FACTORY.createCharacters(LINE_SEPARATOR));
+                } else if (depth == 1 && event.isCharacters() && event.asCharacters().isWhiteSpace()) {
+                    pendingWhitespace.add(event);
+                } else if (depth == 1 && event.isStartElement()
+                        && MODULE.equals(event.asStartElement().getName().getLocalPart())) {
+                    moduleEvents = new ArrayList<>();
+                    moduleDepth = 0;
+                    bufferModule(event);
+                } else if (depth == 1 && event.isEndElement()) {
+                    endApplication(event);
+                } else {
+                    if (event.isStartElement()) {
+                        if (depth == 1 && moduleSeen) {
+                            // the elements following the modules, such as security-role, stay after them
+                            writeAddedModules();
+                        }
+                        if (depth++ == 0) {
+                            applicationName = event.asStartElement().getName();
+                        }
+                    } else if (event.isEndElement()) {
+                        depth--;
+                    }
+                    flushWhitespace();
+                    writer.add(event);
+                    // the whitespace outside of the root element is not reported
+                    if (depth == 0 && !event.isEndDocument()) {
+                        writer.add(EVENT_FACTORY.createCharacters(LINE_SEPARATOR));
+                    }
+                }
+            }
+            LOG.info("Patched application descriptor, modules added: {}, replaced: {}, removed: {}", added,
+                    replaced, removed);
+        }
+
+        private void bufferModule(XMLEvent event) throws XMLStreamException {
+            moduleEvents.add(event);
+            if (event.isStartElement()) {
+                moduleDepth++;
+            } else if (event.isEndElement() && --moduleDepth == 0) {
+                List<XMLEvent> events = moduleEvents;
+                moduleEvents = null;
+                endModule(events);
+            }
+        }
+
+        private void endModule(List<XMLEvent> events) throws XMLStreamException {
+            String webUri = getText(events, WEB_URI);
+            String contextRoot = getText(events, CONTEXT_ROOT);
+            WebModule webModule = webUri != null ? addedByWebUri.get(webUri) : null;
+            if (webModule == null && contextRoot != null) {
+                webModule = addedByContextRoot.get(contextRoot);
+            }
+
+            moduleSeen = true;
+            indentation = pendingWhitespace.isEmpty() ? ""
+                    : pendingWhitespace.get(pendingWhitespace.size() - 1).asCharacters().getData();
+            if (webModule != null) {
+                replaced++;
+                if (writtenWebUris.add(webModule.webUri)) {
+                    flushWhitespace();
+                    writeModule(webModule, indentation);
+                }
+            } else if (webUri != null && removedWebUris.contains(webUri)) {
+                removed++;
+            } else {
+                flushWhitespace();
+                for (XMLEvent event : events) {
+                    writer.add(event);
+                }
+            }
+            pendingWhitespace.clear();
+        }
+
+        private void endApplication(XMLEvent event) throws XMLStreamException {
+            writeAddedModules();
+            flushWhitespace();
+            writer.add(event);
+            writer.add(EVENT_FACTORY.createCharacters(LINE_SEPARATOR));
+            depth--;
+        }
+
+        /*
+         * Write the added modules that did not replace a module of the descriptor
+         */
+        private void writeAddedModules() throws XMLStreamException {
+            for (WebModule webModule : addedByWebUri.values()) {
+                if (writtenWebUris.add(webModule.webUri)) {
+                    added++;
+                    writer.add(EVENT_FACTORY.createCharacters(indentation));
+                    writeModule(webModule, indentation);
+                }
+            }
+        }
+
+        /*
+         * Write a module indented by one more level per element, the level being the indentation of the module
+         * after its last line separator
+         */
+        private void writeModule(WebModule webModule, String moduleIndentation) throws XMLStreamException {
+            String step = moduleIndentation.substring(moduleIndentation.lastIndexOf('\n') + 1);
+            String webIndentation = moduleIndentation + step;
+            String uriIndentation = webIndentation + step;
+            writer.add(EVENT_FACTORY.createStartElement(getName(MODULE),
+                    Collections.singleton(EVENT_FACTORY.createAttribute("id", webModule.id)).iterator(), null));
+            writer.add(EVENT_FACTORY.createCharacters(webIndentation));
+            writer.add(EVENT_FACTORY.createStartElement(getName(WEB), null, null));
+            writer.add(EVENT_FACTORY.createCharacters(uriIndentation));
+            writeElement(WEB_URI, webModule.webUri);
+            writer.add(EVENT_FACTORY.createCharacters(uriIndentation));
+            writeElement(CONTEXT_ROOT, webModule.contextRoot);
+            writer.add(EVENT_FACTORY.createCharacters(webIndentation));
+            writer.add(EVENT_FACTORY.createEndElement(getName(WEB), null));
+            writer.add(EVENT_FACTORY.createCharacters(moduleIndentation));
+            writer.add(EVENT_FACTORY.createEndElement(getName(MODULE), null));
+        }
+
+        private void writeElement(String localName, String text) throws XMLStreamException {
+            writer.add(EVENT_FACTORY.createStartElement(getName(localName), null, null));
+            writer.add(EVENT_FACTORY.createCharacters(text));
+            writer.add(EVENT_FACTORY.createEndElement(getName(localName), null));
+        }
+
+        /*
+         * Added elements are in the namespace of the application, declared on its root element
+         */
+        private QName getName(String localName) {
+            return new QName(applicationName.getNamespaceURI(), localName, applicationName.getPrefix());
+        }
+
+        private void flushWhitespace() throws XMLStreamException {
+            for (XMLEvent event : pendingWhitespace) {
+                writer.add(event);
+            }
+            pendingWhitespace.clear();
+        }
+
+        /*
+         * Trimmed text of the first element with the given name, null if there is none
+         */
+        private String getText(List<XMLEvent> events, String localName) {
+            StringBuilder text = null;
+            for (XMLEvent event : events) {
+                if (text == null) {
+                    if (event.isStartElement() && localName.equals(event.asStartElement().getName().getLocalPart())) {
+                        text = new StringBuilder();
+                    }
+                } else if (event.isCharacters()) {
+                    text.append(event.asCharacters().getData());
+                } else if (event.isEndElement()) {
+                    return text.toString().trim();
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package org.meveo.enterpriseapp;
+
+import static org.meveo.enterpriseapp.ModuleWarGenerator.getterMethodCall;
+import static org.meveo.enterpriseapp.ModuleWarGenerator.setterMethodCall;
+import static org.meveo.enterpriseapp.ModuleWarGenerator.toCamelCase;
+import static org.meveo.enterpriseapp.ModuleWarGenerator.toPascalCase;
+
+import java.util.*;
+
+import org.meveo.model.technicalservice.endpoint.Endpoint;
+import org.meveo.model.technicalservice.endpoint.EndpointPathParameter;
+import org.meveo.model.technicalservice.endpoint.TSParameterMapping;
+
+import com.github.javaparser.StaticJavaParser;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.ImportDeclaration;
+import com.github.javaparser.ast.Modifier;
+import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
+import com.github.javaparser.ast.expr.Name;
+
+/**
+ * Generates the JMH benchmarks of the endpoints of a module WAR, in the src/jmh/java source set compiled and
+ * run by the jmh profile added to the module WAR pom:
+ * <pre>
+ * mvn -Pjmh verify -Djmh.args="-rf json -rff target/jmh-result.json"
+ * </pre>
+ * Every endpoint gets the binding of a sample request body to its DTO, the build of its parameter map, filled
+ * like the generated resource fills it, and a full setters, init, execute and finalize run of its script.
+ * <p>
+ * The benchmarks run outside of the container, without CDI. The first two do not need it. The script is created
+ * with its no-arg constructor in a state of its own, which fails for scripts resolving beans with getCDIBean
+ * in their field initializers: only the script benchmark then fails, with a message naming the
+ * -Dbenchmark.[endpoint code].script=[class name] property selecting a stub subclass to create instead.
+ */
+class BenchmarkGenerator {
+
+    static final String PROFILE_ID = "jmh";
+    private static final String JMH_VERSION = "1.37";
+    private static final String JACKSON_VERSION = "2.13.5";
+
+    private final String modulePackage;
+
+    /**
+     * @param moduleCode normalized code of the module
+     */
+    BenchmarkGenerator(String moduleCode) {
+        this.modulePackage = "org.meveo." + toCamelCase(moduleCode);
+    }
+
+    /**
+     * @param endpointCode code of an endpoint
+     * @return path of the benchmark of the endpoint in the module WAR repository
+     */
+    String getPath(String endpointCode) {
+        return "src/jmh/java/" + modulePackage.replace('.', '/') + "/benchmark/" + getClassName(endpointCode)
+                + ".java";
+    }
+
+    /**
+     * @param definition       endpoint and script of the benchmark
+     * @param endpointDTOClass DTO of the endpoint, null if it has none
+     * @return source of the benchmark
+     */
+    String generateBenchmark(EndpointDefinition definition, String endpointDTOClass) {
+        Endpoint endpoint = definition.getEndpoint();
+        String endpointCode = endpoint.getCode();
+        String serviceClass = endpoint.getService().getCode();
+        String scriptClass = serviceClass.substring(serviceClass.lastIndexOf('.') + 1);
+
+        CompilationUnit cu = new CompilationUnit();
+        cu.setPackageDeclaration(modulePackage + ".benchmark");
+        for (String importedPackage : Arrays.asList("java.util", "org.openjdk.jmh.annotations",
+                "org.meveo.model.customEntities")) {
+            cu.getImports().add(new ImportDeclaration(new Name(importedPackage), false, true));
+        }
+        cu.getImports().add(new ImportDeclaration(new Name("java.util.concurrent.TimeUnit"), false, false));
+        if (endpointDTOClass != null) {
+            cu.getImports().add(
+                    new ImportDeclaration(new Name("com.fasterxml.jackson.databind.ObjectMapper"), false, false));
+            cu.getImports().add(
+                    new ImportDeclaration(new Name(modulePackage + ".dto." + endpointDTOClass), false, false));
+        }
+        cu.getImports().add(new ImportDeclaration(new Name(serviceClass), false, false));
+
+        ClassOrInterfaceDeclaration clazz = cu.addClass(getClassName(endpointCode), Modifier.Keyword.PUBLIC);
+        clazz.addSingleMemberAnnotation("State", "Scope.Thread");
+        clazz.addSingleMemberAnnotation("BenchmarkMode", "Mode.Throughput");
+        clazz.addSingleMemberAnnotation("OutputTimeUnit", "TimeUnit.SECONDS");
+        clazz.addAnnotation(StaticJavaParser.parseAnnotation("@Warmup(iterations = 3, time = 1)"));
+        clazz.addAnnotation(StaticJavaParser.parseAnnotation("@Measurement(iterations = 5, time = 1)"));
+        clazz.addSingleMemberAnnotation("Fork", "1");
+
+        List<TSParameterMapping> parametersMappings = endpoint.getParametersMappingNullSafe();
+        List<EndpointPathParameter> pathParameters = endpoint.getPathParametersNullSafe();
+
+        List<String> members = new ArrayList<>();
+        StringBuilder setters = new StringBuilder();
+        StringBuilder parameterPuts = new StringBuilder();
+        if (endpointDTOClass != null) {
+            StringBuilder requestBody = new StringBuilder();
+            for (TSParameterMapping parameterMapping : parametersMappings) {
+                String parameterName = parameterMapping.getParameterName();
+                String sampleValue = getSampleValue(definition.getSetterType(parameterName));
+                if (sampleValue != null) {
+                    requestBody.append(requestBody.length() == 0 ? "" : ",").append('"').append(parameterName)
+                               .append("\":").append(sampleValue);
+                }
+                setters.append("script.").append(setterMethodCall(parameterName)).append("(dto.")
+                       .append(getterMethodCall(parameterName)).append("());\n");
+                parameterPuts.append("parameterMap.put(\"").append(toCamelCase(parameterName)).append("\", dto.")
+                             .append(getterMethodCall(parameterName)).append("());\n");
+            }
+            members.add("private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();");
+            members.add("private static final String REQUEST_BODY = \"" + escape("{" + requestBody + "}") + "\";");
+            members.add("private " + endpointDTOClass + " dto;");
+        } else {
+            // the resource puts the names of query parameters as their values, the setters get the values
+            for (TSParameterMapping parameterMapping : parametersMappings) {
+                String parameterName = parameterMapping.getParameterName();
+                members.add(getParameterField(definition, parameterName));
+                setters.append("script.").append(setterMethodCall(parameterName)).append("(").append(parameterName)
+                       .append(");\n");
+                parameterPuts.append("parameterMap.put(\"").append(parameterName).append("\", \"")
+                             .append(parameterName).append("\");\n");
+            }
+        }
+        for (EndpointPathParameter pathParameter : pathParameters) {
+            String parameterName = pathParameter.getEndpointParameter().getParameter();
+            members.add(getParameterField(definition, parameterName));
+            setters.append("script.").append(setterMethodCall(parameterName)).append("(").append(parameterName)
+                   .append(");\n");
+            parameterPuts.append("parameterMap.put(\"").append(pathParameter).append("\", \"").append(pathParameter)
+                         .append("\");\n");
+        }
+
+        if (endpointDTOClass != null) {
+            members.add("@Setup\n"
+                    + "public void setup() throws Exception {\n"
+                    + "dto = OBJECT_MAPPER.readValue(REQUEST_BODY, " + endpointDTOClass + ".class);\n"
+                    + "}");
+        }
+        if (endpointDTOClass != null) {
+            members.add("/** Binding of the request body by the JSON provider */\n"
+                    + "@Benchmark\n"
+                    + "public Object dtoBinding() throws Exception {\n"
+                    + "return OBJECT_MAPPER.readValue(REQUEST_BODY, " + endpointDTOClass + ".class);\n"
+                    + "}");
+        }
+        members.add("/** Parameter map passed to the script by the resource */\n"
+                + "@Benchmark\n"
+                + "public Map<String, Object> parameterMap() {\n"
+                + "Map<String, Object> parameterMap = new HashMap<String, Object>();\n"
+                + parameterPuts
+                + "return parameterMap;\n"
+                + "}");
+        members.add("/** Script run of the resource, without the HTTP and JSON layers */\n"
+                + "@Benchmark\n"
+                + "public Object scriptExecute(ScriptState scriptState) throws Exception {\n"
+                + scriptClass + " script = scriptState.script;\n"
+                + "Map<String, Object> parameterMap = parameterMap();\n"
+                + setters
+                + "script.init(parameterMap);\n"
+                + "script.execute(parameterMap);\n"
+                + "script.finalize(parameterMap);\n"
+                + "return script.getResult();\n"
+                + "}");
+        members.add("/** Script of the benchmark, in a state of its own as it may not be created outside of the container */\n"
+                + "@State(Scope.Thread)\n"
+                + "public static class ScriptState {\n"
+                + "private " + scriptClass + " script;\n"
+                + "@Setup\n"
+                + "public void setup() {\n"
+                + "String scriptClass = System.getProperty(\"" + getScriptProperty(endpointCode) + "\", "
+                + scriptClass + ".class.getName());\n"
+                + "try {\n"
+                + "script = (" + scriptClass + ") Class.forName(scriptClass).getDeclaredConstructor().newInstance();\n"
+                + "} catch (ReflectiveOperationException | RuntimeException | LinkageError e) {\n"
+                + "throw new IllegalStateException(\"Script: \" + scriptClass + \" can not be created outside of the "
+                + "container, set -D" + getScriptProperty(endpointCode) + " to a subclass not using CDI\", e);\n"
+                + "}\n"
+                + "}\n"
+                + "}");
+        for (String member : members) {
+            clazz.addMember(StaticJavaParser.parseBodyDeclaration(member));
+        }
+        return cu.toString();
+    }
+
+    /**
+     * Add the jmh profile to the module WAR pom, unless it already has one
+     *
+     * @param pomContent rendered pom of the module WAR
+     * @return the pom with the jmh profile
+     */
+    static String addProfile(String pomContent) {
+        if (pomContent.contains("<id>" + PROFILE_ID + "</id>")) {
+            return pomContent;
+        }
+        String profile = String.join("\n",
+                "        <profile>",
+                "            <id>" + PROFILE_ID + "</id>",
+                "            <properties>",
+                "                <jmh.args></jmh.args>",
+                "            </properties>",
+                "            <dependencies>",
+                "                <dependency>",
+                "                    <groupId>org.openjdk.jmh</groupId>",
+                "                    <artifactId>jmh-core</artifactId>",
+                "                    <version>" + JMH_VERSION + "</version>",
+                "                    <scope>test</scope>",
+                "                </dependency>",
+                "                <dependency>",
+                "                    <groupId>org.openjdk.jmh</groupId>",
+                "                    <artifactId>jmh-generator-annprocess</artifactId>",
+                "                    <version>" + JMH_VERSION + "</version>",
+                "                    <scope>test</scope>",
+                "                </dependency>",
+                "                <dependency>",
+                "                    <groupId>com.fasterxml.jackson.core</groupId>",
+                "                    <artifactId>jackson-databind</artifactId>",
+                "                    <version>" + JACKSON_VERSION + "</version>",
+                "                    <scope>test</scope>",
+                "                </dependency>",
+                "            </dependencies>",
+                "            <build>",
+                "                <plugins>",
+                "                    <plugin>",
+                "                        <groupId>org.codehaus.mojo</groupId>",
+                "                        <artifactId>build-helper-maven-plugin</artifactId>",
+                "                        <version>3.4.0</version>",
+                "                        <executions>",
+                "                            <execution>",
+                "                                <id>add-jmh-sources</id>",
+                "                                <phase>generate-test-sources</phase>",
+                "                                <goals>",
+                "                                    <goal>add-test-source</goal>",
+                "                                </goals>",
+                "                                <configuration>",
+                "                                    <sources>",
+                "                                        <source>src/jmh/java</source>",
+                "                                    </sources>",
+                "                                </configuration>",
+                "                            </execution>",
+                "                        </executions>",
+                "                    </plugin>",
+                "                    <plugin>",
+                "                        <groupId>org.codehaus.mojo</groupId>",
+                "                        <artifactId>exec-maven-plugin</artifactId>",
+                "                        <version>3.1.0</version>",
+                "                        <executions>",
+                "                            <execution>",
+                "                                <id>run-benchmarks</id>",
+                "                                <phase>integration-test</phase>",
+                "                                <goals>",
+                "                                    <goal>exec</goal>",
+                "                                </goals>",
+                "                                <configuration>",
+                "                                    <classpathScope>test</classpathScope>",
+                "                                    <executable>java</executable>",
+                "                                    <commandlineArgs>-classpath %classpath org.openjdk.jmh.Main ${jmh.args}</commandlineArgs>",
+                "                                </configuration>",
+                "                            </execution>",
+                "                        </executions>",
+                "                    </plugin>",
+                "                </plugins>",
+                "            </build>",
+                "        </profile>");
+        int profilesEnd = pomContent.lastIndexOf("</profiles>");
+        if (profilesEnd >= 0) {
+            return pomContent.substring(0, profilesEnd) + profile.trim() + "\n    " + pomContent.substring(profilesEnd);
+        }
+        int projectEnd = pomContent.lastIndexOf("</project>");
+        if (projectEnd < 0) {
+            return pomContent;
+        }
+        return pomContent.substring(0, projectEnd) + "    <profiles>\n" + profile + "\n    </profiles>\n"
+                + pomContent.substring(projectEnd);
+    }
+
+    private static String getScriptProperty(String endpointCode) {
+        return "benchmark." + endpointCode + ".script";
+    }
+
+    private String getClassName(String endpointCode) {
+        return toPascalCase(endpointCode) + "Benchmark";
+    }
+
+    private String getParameterField(EndpointDefinition definition, String parameterName) {
+        String type = definition.getSetterType(parameterName);
+        String sampleValue = getSampleValue(type);
+        if (sampleValue == null) {
+            sampleValue = "null";
+        } else if (type.equalsIgnoreCase("long") || type.equals("java.lang.Long")) {
+            sampleValue += "L";
+        }
+        return "private " + type + " " + parameterName + " = " + sampleValue + ";";
+    }
+
+    /*
+     * JSON literal of a sample value, null for types without an obvious sample
+     */
+    private static String getSampleValue(String type) {
+        switch (type.replace("java.lang.", "")) {
+        case "String":
+            return "\"value\"";
+        case "int":
+        case "Integer":
+        case "long":
+        case "Long":
+            return "1";
+        case "double":
+        case "Double":
+            return "1.0";
+        case "boolean":
+        case "Boolean":
+            return "true";
+        default:
+            return null;
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
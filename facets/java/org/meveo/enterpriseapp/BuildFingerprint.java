@@ -0,0 +1,109 @@
+package org.meveo.enterpriseapp;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Fingerprint of the inputs of a module WAR build: the hashes of every file written into the WAR
+ * repository (module sources, generated endpoints and template files) and the Meveo version.
+ * <p>
+ * Comparing it with the fingerprint of the last successful build tells whether Maven has to run at all,
+ * and whether the build can reuse the content of target/.
+ */
+public class BuildFingerprint {
+
+    public enum BuildPlan {
+        /** Nothing changed, the existing WAR is reused */
+        SKIP,
+        /** Only file contents changed, target/ is kept */
+        INCREMENTAL,
+        /** Files were added or removed, the pom or the Meveo version changed */
+        CLEAN
+    }
+
+    private static final String MEVEO_VERSION = "meveoVersion";
+    private static final String POM_HASH = "pom";
+    private static final String FILES_HASH = "files";
+    private static final String CONTENT_HASH = "content";
+    private static final String POM_XML_FILE = "pom.xml";
+
+    private final Map<String, String> values;
+
+    private BuildFingerprint(Map<String, String> values) {
+        this.values = values;
+    }
+
+    /**
+     * @param fileHashes   hashes of the files of the WAR repository, keyed by relative path
+     * @param meveoVersion version of Meveo the module is built against
+     * @return the fingerprint of the build inputs
+     */
+    public static BuildFingerprint of(Map<String, String> fileHashes, String meveoVersion) {
+        MessageDigest filesDigest = SourceManifest.newDigest();
+        MessageDigest contentDigest = SourceManifest.newDigest();
+        for (Map.Entry<String, String> entry : new TreeMap<>(fileHashes).entrySet()) {
+            filesDigest.update((entry.getKey() + "\n").getBytes(StandardCharsets.UTF_8));
+            contentDigest.update((entry.getKey() + "=" + entry.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        Map<String, String> values = new TreeMap<>();
+        values.put(MEVEO_VERSION, String.valueOf(meveoVersion));
+        values.put(POM_HASH, String.valueOf(fileHashes.get(POM_XML_FILE)));
+        values.put(FILES_HASH, SourceManifest.toHex(filesDigest.digest()));
+        values.put(CONTENT_HASH, SourceManifest.toHex(contentDigest.digest()));
+        return new BuildFingerprint(values);
+    }
+
+    /*
+     * Read the fingerprint of the last successful build, returns null when there is none
+     */
+    public static BuildFingerprint load(Path fingerprintPath) throws IOException {
+        if (!Files.isRegularFile(fingerprintPath)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(fingerprintPath, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        Map<String, String> values = new TreeMap<>();
+        properties.stringPropertyNames().forEach(name -> values.put(name, properties.getProperty(name)));
+        return new BuildFingerprint(values);
+    }
+
+    public void save(Path fingerprintPath) throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(values);
+        try (Writer writer = Files.newBufferedWriter(fingerprintPath, StandardCharsets.UTF_8)) {
+            properties.store(writer, "Module WAR build fingerprint");
+        }
+    }
+
+    /**
+     * @param previous  fingerprint of the last successful build, may be null
+     * @param warExists whether the WAR produced by that build is still in target/
+     * @return the kind of build needed to bring the WAR up to date
+     */
+    public BuildPlan planAgainst(BuildFingerprint previous, boolean warExists) {
+        if (previous == null || !warExists) {
+            return BuildPlan.CLEAN;
+        }
+        if (!sameValue(previous, MEVEO_VERSION) || !sameValue(previous, POM_HASH)
+                || !sameValue(previous, FILES_HASH)) {
+            return BuildPlan.CLEAN;
+        }
+        return sameValue(previous, CONTENT_HASH) ? BuildPlan.SKIP : BuildPlan.INCREMENTAL;
+    }
+
+    private boolean sameValue(BuildFingerprint previous, String key) {
+        return Objects.equals(values.get(key), previous.values.get(key));
+    }
+}
@@ -0,0 +1,149 @@
+package org.meveo.enterpriseapp;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.meveo.admin.exception.BusinessException;
+import org.meveo.commons.utils.ParamBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serializes the operations of the generation and install pipeline that must not run concurrently.
+ * <p>
+ * A module WAR repository is only written by one job at a time, meveo.ear is only rewritten by one install
+ * at a time, and the number of concurrent Maven builds is capped by enterpriseapp.build.workers. Queue depths
+ * and wait times are reported to {@link PipelineMetrics}.
+ */
+public final class BuildScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(BuildScheduler.class);
+
+    static final String BUILD_WORKERS_PROPERTY = "enterpriseapp.build.workers";
+
+    private static final Map<String, ReentrantLock> MODULE_LOCKS = new ConcurrentHashMap<>();
+    private static final AtomicInteger MODULE_LOCK_WAITERS = new AtomicInteger();
+    private static final ReentrantLock EAR_LOCK = new ReentrantLock(true);
+    private static final BuildSlots BUILD_SLOTS = new BuildSlots();
+
+    static {
+        PipelineMetrics.gauge("scheduler.moduleLock.queue", MODULE_LOCK_WAITERS::get);
+        PipelineMetrics.gauge("scheduler.earLock.queue", EAR_LOCK::getQueueLength);
+        PipelineMetrics.gauge("scheduler.buildSlot.queue", BUILD_SLOTS::getQueueLength);
+        PipelineMetrics.gauge("scheduler.buildSlot.available", BUILD_SLOTS::availablePermits);
+    }
+
+    @FunctionalInterface
+    public interface Action<T> {
+        T run() throws BusinessException;
+    }
+
+    private BuildScheduler() {
+    }
+
+    /**
+     * Run an action while holding the locks of the given modules, acquired in code order
+     */
+    public static <T> T withModuleLocks(Collection<String> moduleCodes, Action<T> action) throws BusinessException {
+        List<ReentrantLock> locks = new ArrayList<>();
+        for (String moduleCode : new TreeSet<>(moduleCodes)) {
+            locks.add(MODULE_LOCKS.computeIfAbsent(moduleCode, key -> new ReentrantLock(true)));
+        }
+        long start = System.nanoTime();
+        MODULE_LOCK_WAITERS.incrementAndGet();
+        List<ReentrantLock> heldLocks = new ArrayList<>();
+        try {
+            for (ReentrantLock lock : locks) {
+                lock.lockInterruptibly();
+                heldLocks.add(lock);
+            }
+        } catch (InterruptedException e) {
+            heldLocks.forEach(ReentrantLock::unlock);
+            Thread.currentThread().interrupt();
+            throw new BusinessException("Interrupted while waiting for modules: " + moduleCodes, e);
+        } finally {
+            MODULE_LOCK_WAITERS.decrementAndGet();
+        }
+        recordWait("scheduler.moduleLock.wait", start, "modules: " + moduleCodes);
+        try {
+            return action.run();
+        } finally {
+            heldLocks.forEach(ReentrantLock::unlock);
+        }
+    }
+
+    /**
+     * Run an action that reads or writes meveo.ear, one at a time
+     */
+    public static <T> T withEarLock(Action<T> action) throws BusinessException {
+        long start = System.nanoTime();
+        try {
+            EAR_LOCK.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusinessException("Interrupted while waiting for meveo.ear", e);
+        }
+        recordWait("scheduler.earLock.wait", start, "meveo.ear");
+        try {
+            return action.run();
+        } finally {
+            EAR_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Run a Maven build once one of the configured build workers is free
+     */
+    public static <T> T withBuildSlot(ParamBean config, Action<T> action) throws BusinessException {
+        int workers = Integer.parseInt(config.getProperty(BUILD_WORKERS_PROPERTY,
+                String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))));
+        BUILD_SLOTS.resize(Math.max(1, workers));
+        long start = System.nanoTime();
+        try {
+            BUILD_SLOTS.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusinessException("Interrupted while waiting for a build worker", e);
+        }
+        recordWait("scheduler.buildSlot.wait", start, "a build worker");
+        try {
+            return action.run();
+        } finally {
+            BUILD_SLOTS.release();
+        }
+    }
+
+    private static void recordWait(String metric, long start, String resource) {
+        long waitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        PipelineMetrics.record(metric, waitMillis);
+        if (waitMillis > 0) {
+            LOG.info("Waited {}ms for {}", waitMillis, resource);
+        }
+    }
+
+    /*
+     * Fair semaphore whose number of permits follows the configuration
+     */
+    private static class BuildSlots extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        private int permits;
+
+        private BuildSlots() {
+            super(0, true);
+        }
+
+        private synchronized void resize(int newPermits) {
+            if (newPermits > permits) {
+                release(newPermits - permits);
+            } else if (newPermits < permits) {
+                reducePermits(permits - newPermits);
+            }
+            permits = newPermits;
+        }
+    }
+}
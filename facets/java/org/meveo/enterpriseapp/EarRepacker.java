@@ -0,0 +1,88 @@
+package org.meveo.enterpriseapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes a copy of an EAR with an updated application descriptor and replaced or added module WARs.
+ * <p>
+ * Entries that are not touched are copied in their compressed form: their data, CRC, sizes and compression
+ * method are kept as is, nothing is inflated or deflated again. Only the application descriptor and the
+ * module WARs are encoded.
+ */
+public class EarRepacker {
+    private static final Logger LOG = LoggerFactory.getLogger(EarRepacker.class);
+
+    public static final String APPLICATION_DESCRIPTOR = "META-INF/application.xml";
+
+    /**
+     * @param earFile           EAR to read
+     * @param outputFile        EAR to write
+     * @param descriptorUpdater transforms the content of META-INF/application.xml
+     * @param moduleEntries     files to store in the EAR, keyed by entry name, replacing existing entries. A
+     *                          null file removes the entry.
+     */
+    public static void repack(File earFile, File outputFile, UnaryOperator<byte[]> descriptorUpdater,
+            Map<String, File> moduleEntries) throws IOException {
+        int copiedEntries = 0;
+        try (ZipFile earZip = new ZipFile(earFile);
+                ZipArchiveOutputStream earZipOutput = new ZipArchiveOutputStream(outputFile)) {
+            Enumeration<ZipArchiveEntry> entries = earZip.getEntriesInPhysicalOrder();
+            while (entries.hasMoreElements()) {
+                ZipArchiveEntry entry = entries.nextElement();
+                String entryName = entry.getName();
+                if (APPLICATION_DESCRIPTOR.equals(entryName)) {
+                    byte[] descriptor;
+                    try (InputStream descriptorInput = earZip.getInputStream(entry)) {
+                        descriptor = descriptorUpdater.apply(IOUtils.toByteArray(descriptorInput));
+                    }
+                    ZipArchiveEntry descriptorEntry = new ZipArchiveEntry(APPLICATION_DESCRIPTOR);
+                    descriptorEntry.setMethod(ZipEntry.DEFLATED);
+                    earZipOutput.putArchiveEntry(descriptorEntry);
+                    earZipOutput.write(descriptor);
+                    earZipOutput.closeArchiveEntry();
+                    LOG.info("Successfully updated: {}", entryName);
+                } else if (!moduleEntries.containsKey(entryName)) {
+                    try (InputStream rawInput = earZip.getRawInputStream(entry)) {
+                        earZipOutput.addRawArchiveEntry(entry, rawInput);
+                    }
+                    copiedEntries++;
+                }
+            }
+            LOG.info("Copied {} unchanged entries without recompression", copiedEntries);
+
+            for (Map.Entry<String, File> moduleEntry : moduleEntries.entrySet()) {
+                if (moduleEntry.getValue() == null) {
+                    LOG.info("Successfully removed: {}", moduleEntry.getKey());
+                    continue;
+                }
+                ZipArchiveEntry warEntry = new ZipArchiveEntry(moduleEntry.getKey());
+                warEntry.setMethod(ZipEntry.DEFLATED);
+                earZipOutput.putArchiveEntry(warEntry);
+                copy(moduleEntry.getValue(), earZipOutput);
+                earZipOutput.closeArchiveEntry();
+                LOG.info("Successfully added: {}", moduleEntry.getKey());
+            }
+        }
+    }
+
+    private static void copy(File file, OutputStream output) throws IOException {
+        try (InputStream input = Files.newInputStream(file.toPath())) {
+            IOUtils.copy(input, output);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package org.meveo.enterpriseapp;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import java.util.zip.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Updates an EAR in place, without copying it.
+ * <p>
+ * Only the tail of the archive is read: the end of central directory record and the central directory,
+ * which give the location of META-INF/application.xml and of the module WARs to replace, and the space taken
+ * by the entries that are kept. The updated descriptor and the
+ * module WARs are then written where the old central directory started, followed by a new central directory.
+ * Records of the untouched entries are copied verbatim since their local headers do not move, so the I/O is
+ * about the size of the module WARs plus the central directory.
+ * <p>
+ * Replaced entries are left behind as dead space; {@link #update} returns an estimate of its size so the
+ * caller can compact the archive when it grows too much. ZIP64 archives, and updates that would need ZIP64, are rejected
+ * with a {@link ZipException} before anything is written. Once writing started, a failure restores the old
+ * central directory and size of the archive, and is reported with a plain {@link IOException}.
+ */
+public class EarUpdater {
+    private static final Logger LOG = LoggerFactory.getLogger(EarUpdater.class);
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int DATA_DESCRIPTOR_SIZE = 12;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int VERSION = 20;
+    private static final int DATA_DESCRIPTOR_FLAG = 0x0008;
+    private static final int UTF8_FLAG = 0x0800;
+    private static final long MAX_UNSIGNED_INT = 0xFFFFFFFFL;
+    private static final int BUFFER_SIZE = 65536;
+
+    /**
+     * @param earFile           EAR to update
+     * @param descriptorUpdater transforms the content of META-INF/application.xml
+     * @param moduleEntries     files to store in the EAR, keyed by entry name, replacing existing entries
+     * @return the number of bytes of the archive no longer referenced by the central directory
+     */
+    public static long update(File earFile, UnaryOperator<byte[]> descriptorUpdater, Map<String, File> moduleEntries)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(earFile.toPath(), READ, WRITE)) {
+            long fileSize = channel.size();
+            long tailOffset = Math.max(0, fileSize - END_OF_CENTRAL_DIRECTORY_SIZE - MAX_COMMENT_SIZE);
+            ByteBuffer tail = read(channel, tailOffset, (int) (fileSize - tailOffset));
+            int endOfCentralDirectory = findEndOfCentralDirectory(tail);
+            if (endOfCentralDirectory < 0) {
+                throw new ZipException("End of central directory not found in: " + earFile);
+            }
+            int entryCount = unsignedShort(tail, endOfCentralDirectory + 10);
+            long centralDirectorySize = unsignedInt(tail, endOfCentralDirectory + 12);
+            long centralDirectoryOffset = unsignedInt(tail, endOfCentralDirectory + 16);
+            if (entryCount == 0xFFFF || centralDirectorySize == MAX_UNSIGNED_INT
+                    || centralDirectoryOffset == MAX_UNSIGNED_INT) {
+                throw new ZipException("ZIP64 archives can not be updated in place: " + earFile);
+            }
+
+            ByteBuffer centralDirectory = read(channel, centralDirectoryOffset, (int) centralDirectorySize);
+            ByteArrayOutputStream records = new ByteArrayOutputStream((int) centralDirectorySize + 1024);
+            int recordCount = 0;
+            long liveBytes = 0;
+            byte[] descriptor = null;
+            int position = 0;
+            while (position < centralDirectorySize) {
+                if (centralDirectory.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                    throw new ZipException("Invalid central directory record at: " + position);
+                }
+                int flags = unsignedShort(centralDirectory, position + 8);
+                int method = unsignedShort(centralDirectory, position + 10);
+                long compressedSize = unsignedInt(centralDirectory, position + 20);
+                int nameLength = unsignedShort(centralDirectory, position + 28);
+                int extraLength = unsignedShort(centralDirectory, position + 30);
+                int commentLength = unsignedShort(centralDirectory, position + 32);
+                long localHeaderOffset = unsignedInt(centralDirectory, position + 42);
+                int recordLength = CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+                byte[] nameBytes = new byte[nameLength];
+                centralDirectory.position(position + CENTRAL_HEADER_SIZE);
+                centralDirectory.get(nameBytes);
+                String entryName = new String(nameBytes, StandardCharsets.UTF_8);
+
+                if (EarRepacker.APPLICATION_DESCRIPTOR.equals(entryName)) {
+                    descriptor = readEntry(channel, localHeaderOffset, method, compressedSize);
+                } else if (!moduleEntries.containsKey(entryName)) {
+                    records.write(centralDirectory.array(), position, recordLength);
+                    recordCount++;
+                    liveBytes += getEntrySize(channel, localHeaderOffset, flags, compressedSize, nameLength,
+                            extraLength);
+                }
+                position += recordLength;
+            }
+
+            // every limit is checked before the first write, so that a ZipException leaves the archive untouched
+            byte[] updatedDescriptor = descriptor != null ? descriptorUpdater.apply(descriptor) : null;
+            int newRecordCount = recordCount + (updatedDescriptor != null ? 1 : 0) + moduleEntries.size();
+            if (newRecordCount >= 0xFFFF) {
+                throw new ZipException("Archive would require ZIP64 extensions for its " + newRecordCount
+                        + " entries: " + earFile);
+            }
+            long maxSize = centralDirectoryOffset + records.size() + END_OF_CENTRAL_DIRECTORY_SIZE;
+            if (updatedDescriptor != null) {
+                maxSize += getMaxEntrySize(EarRepacker.APPLICATION_DESCRIPTOR, updatedDescriptor.length);
+            }
+            for (Map.Entry<String, File> moduleEntry : moduleEntries.entrySet()) {
+                maxSize += getMaxEntrySize(moduleEntry.getKey(), checkOffset(moduleEntry.getValue().length()));
+            }
+            checkOffset(maxSize);
+
+            // the old central directory is overwritten first, it is restored if anything fails from here on
+            ByteBuffer originalTail = read(channel, centralDirectoryOffset, (int) (fileSize - centralDirectoryOffset));
+            try {
+                long writePosition = centralDirectoryOffset;
+                long bytesWritten = 0;
+                if (updatedDescriptor != null) {
+                    long entryEnd = writeEntry(channel, writePosition, EarRepacker.APPLICATION_DESCRIPTOR,
+                            new ByteArrayInputStream(updatedDescriptor), records);
+                    bytesWritten += entryEnd - writePosition;
+                    liveBytes += entryEnd - writePosition;
+                    writePosition = entryEnd;
+                    LOG.info("Successfully updated: {}", EarRepacker.APPLICATION_DESCRIPTOR);
+                }
+                for (Map.Entry<String, File> moduleEntry : moduleEntries.entrySet()) {
+                    try (InputStream moduleInput = Files.newInputStream(moduleEntry.getValue().toPath())) {
+                        long entryEnd = writeEntry(channel, writePosition, moduleEntry.getKey(), moduleInput,
+                                records);
+                        bytesWritten += entryEnd - writePosition;
+                        liveBytes += entryEnd - writePosition;
+                        writePosition = entryEnd;
+                    }
+                    LOG.info("Successfully added: {}", moduleEntry.getKey());
+                }
+
+                byte[] newCentralDirectory = records.toByteArray();
+                ByteBuffer endRecord = ByteBuffer.allocate(END_OF_CENTRAL_DIRECTORY_SIZE)
+                                                 .order(ByteOrder.LITTLE_ENDIAN);
+                endRecord.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE).putShort((short) 0).putShort((short) 0)
+                         .putShort((short) newRecordCount).putShort((short) newRecordCount)
+                         .putInt(newCentralDirectory.length).putInt((int) checkOffset(writePosition))
+                         .putShort((short) 0).flip();
+                write(channel, writePosition, ByteBuffer.wrap(newCentralDirectory));
+                write(channel, writePosition + newCentralDirectory.length, endRecord);
+                long newSize = writePosition + newCentralDirectory.length + END_OF_CENTRAL_DIRECTORY_SIZE;
+                channel.truncate(newSize);
+                channel.force(true);
+
+                bytesWritten += newCentralDirectory.length + END_OF_CENTRAL_DIRECTORY_SIZE;
+                LOG.info("Updated {} in place: {} bytes written, {} entries", earFile, bytesWritten,
+                        newRecordCount);
+                return writePosition - liveBytes;
+            } catch (IOException | RuntimeException e) {
+                restore(channel, centralDirectoryOffset, originalTail, fileSize, e);
+                // not a ZipException: the archive was written to, it must not be repacked as if it was untouched
+                throw new IOException("Failed to update " + earFile + " in place, its central directory was restored",
+                        e);
+            }
+        }
+    }
+
+    /*
+     * Write back the original central directory and end of central directory record, and drop what was appended
+     */
+    private static void restore(FileChannel channel, long centralDirectoryOffset, ByteBuffer originalTail,
+            long fileSize, Exception cause) {
+        try {
+            originalTail.rewind();
+            write(channel, centralDirectoryOffset, originalTail);
+            channel.truncate(fileSize);
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Failed to restore the central directory after a failed update", e);
+            cause.addSuppressed(e);
+        }
+    }
+
+    /*
+     * Size of an entry in the archive from its central directory record: its local header, assumed to have the
+     * same extra field, and its data. Only the entries followed by a data descriptor, when bit 3 of the general
+     * purpose flag is set, have their local header read, to find the descriptor and its optional signature.
+     */
+    private static long getEntrySize(FileChannel channel, long localHeaderOffset, int flags, long compressedSize,
+            int nameLength, int extraLength) throws IOException {
+        if ((flags & DATA_DESCRIPTOR_FLAG) == 0) {
+            return LOCAL_HEADER_SIZE + nameLength + extraLength + compressedSize;
+        }
+        ByteBuffer localHeader = read(channel, localHeaderOffset, LOCAL_HEADER_SIZE);
+        if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header at: " + localHeaderOffset);
+        }
+        long size = LOCAL_HEADER_SIZE + unsignedShort(localHeader, 26) + unsignedShort(localHeader, 28)
+                + compressedSize;
+        boolean signed = read(channel, localHeaderOffset + size, 4).getInt(0) == DATA_DESCRIPTOR_SIGNATURE;
+        return size + (signed ? DATA_DESCRIPTOR_SIZE + 4 : DATA_DESCRIPTOR_SIZE);
+    }
+
+    /*
+     * Upper bound of the space taken by an entry written by writeEntry, with its central directory record, the
+     * deflated size being bounded like zlib's compressBound
+     */
+    private static long getMaxEntrySize(String entryName, long size) {
+        int nameLength = entryName.getBytes(StandardCharsets.UTF_8).length;
+        long maxCompressedSize = size + (size >> 12) + (size >> 14) + (size >> 25) + 13;
+        return LOCAL_HEADER_SIZE + nameLength + maxCompressedSize + CENTRAL_HEADER_SIZE + nameLength;
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer tail) {
+        for (int position = tail.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; position >= 0; position--) {
+            if (tail.getInt(position) == END_OF_CENTRAL_DIRECTORY_SIGNATURE
+                    && position + END_OF_CENTRAL_DIRECTORY_SIZE + unsignedShort(tail, position + 20) == tail.limit()) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] readEntry(FileChannel channel, long localHeaderOffset, int method, long compressedSize)
+            throws IOException {
+        ByteBuffer localHeader = read(channel, localHeaderOffset, LOCAL_HEADER_SIZE);
+        if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header at: " + localHeaderOffset);
+        }
+        long dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE + unsignedShort(localHeader, 26)
+                + unsignedShort(localHeader, 28);
+        byte[] data = read(channel, dataOffset, (int) compressedSize).array();
+        if (method == ZipEntry.STORED) {
+            return data;
+        }
+        if (method != ZipEntry.DEFLATED) {
+            throw new ZipException("Unsupported compression method: " + method);
+        }
+        Inflater inflater = new Inflater(true);
+        try (InputStream input = new InflaterInputStream(new ByteArrayInputStream(data), inflater)) {
+            return input.readAllBytes();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /*
+     * Write a deflated entry at the given position, its central directory record is appended to records
+     */
+    private static long writeEntry(FileChannel channel, long position, String entryName, InputStream content,
+            ByteArrayOutputStream records) throws IOException {
+        byte[] nameBytes = entryName.getBytes(StandardCharsets.UTF_8);
+        long dataOffset = position + LOCAL_HEADER_SIZE + nameBytes.length;
+
+        CRC32 crc = new CRC32();
+        long size = 0;
+        channel.position(dataOffset);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            OutputStream channelOutput = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+            DeflaterOutputStream deflaterOutput = new DeflaterOutputStream(channelOutput, deflater, BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = content.read(buffer)) != -1) {
+                crc.update(buffer, 0, bytesRead);
+                deflaterOutput.write(buffer, 0, bytesRead);
+                size += bytesRead;
+            }
+            deflaterOutput.finish();
+            channelOutput.flush();
+        } finally {
+            deflater.end();
+        }
+        long compressedSize = channel.position() - dataOffset;
+
+        int[] dosDateTime = dosDateTime(LocalDateTime.now());
+        ByteBuffer localHeader = ByteBuffer.allocate(LOCAL_HEADER_SIZE + nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        localHeader.putInt(LOCAL_HEADER_SIGNATURE).putShort((short) VERSION).putShort((short) UTF8_FLAG)
+                   .putShort((short) ZipEntry.DEFLATED).putShort((short) dosDateTime[1]).putShort((short) dosDateTime[0])
+                   .putInt((int) crc.getValue()).putInt((int) checkOffset(compressedSize)).putInt((int) checkOffset(size))
+                   .putShort((short) nameBytes.length).putShort((short) 0).put(nameBytes).flip();
+        write(channel, position, localHeader);
+
+        ByteBuffer record = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(CENTRAL_HEADER_SIGNATURE).putShort((short) VERSION).putShort((short) VERSION)
+              .putShort((short) UTF8_FLAG).putShort((short) ZipEntry.DEFLATED)
+              .putShort((short) dosDateTime[1]).putShort((short) dosDateTime[0])
+              .putInt((int) crc.getValue()).putInt((int) compressedSize).putInt((int) size)
+              .putShort((short) nameBytes.length).putShort((short) 0).putShort((short) 0)
+              .putShort((short) 0).putShort((short) 0).putInt(0).putInt((int) checkOffset(position))
+              .put(nameBytes);
+        records.write(record.array(), 0, record.capacity());
+
+        return dataOffset + compressedSize;
+    }
+
+    private static int[] dosDateTime(LocalDateTime dateTime) {
+        int dosDate = ((dateTime.getYear() - 1980) << 9) | (dateTime.getMonthValue() << 5) | dateTime.getDayOfMonth();
+        int dosTime = (dateTime.getHour() << 11) | (dateTime.getMinute() << 5) | (dateTime.getSecond() >> 1);
+        return new int[] { dosDate, dosTime };
+    }
+
+    private static long checkOffset(long value) throws ZipException {
+        if (value >= MAX_UNSIGNED_INT) {
+            throw new ZipException("Archive would require ZIP64 extensions");
+        }
+        return value;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of archive at: " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void write(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        long writePosition = position;
+        while (buffer.hasRemaining()) {
+            writePosition += channel.write(buffer, writePosition);
+        }
+    }
+
+    private static int unsignedShort(ByteBuffer buffer, int index) {
+        return buffer.getShort(index) & 0xFFFF;
+    }
+
+    private static long unsignedInt(ByteBuffer buffer, int index) {
+        return buffer.getInt(index) & MAX_UNSIGNED_INT;
+    }
+}
@@ -0,0 +1,79 @@
+package org.meveo.enterpriseapp;
+
+import java.util.*;
+
+import org.meveo.model.scripts.Accessor;
+import org.meveo.model.scripts.ScriptInstance;
+import org.meveo.model.technicalservice.endpoint.Endpoint;
+import org.meveo.model.technicalservice.endpoint.EndpointPathParameter;
+
+/**
+ * Endpoint and script metadata fetched during the read phase of a generation.
+ * <p>
+ * Lazy associations are initialized on creation so the definition can be used by the generation threads
+ * without going back to the persistence context. Script setters and getters are indexed by lower case name,
+ * the first accessor wins like the linear lookups it replaces.
+ */
+class EndpointDefinition {
+
+    private final Endpoint endpoint;
+    private final ScriptInstance scriptInstance;
+    private final Map<String, Accessor> settersByName;
+    private final Map<String, Accessor> gettersByName;
+
+    EndpointDefinition(Endpoint endpoint, ScriptInstance scriptInstance) {
+        this.endpoint = endpoint;
+        this.scriptInstance = scriptInstance;
+        endpoint.getService().getCode();
+        endpoint.getParametersMappingNullSafe().size();
+        for (EndpointPathParameter pathParameter : endpoint.getPathParametersNullSafe()) {
+            pathParameter.getEndpointParameter().getParameter();
+        }
+        this.settersByName = indexByName(scriptInstance.getSetters());
+        this.gettersByName = indexByName(scriptInstance.getGetters());
+    }
+
+    Endpoint getEndpoint() {
+        return endpoint;
+    }
+
+    ScriptInstance getScriptInstance() {
+        return scriptInstance;
+    }
+
+    /**
+     * @param parameterName name of a script parameter, case insensitive
+     * @return the type of the matching script setter
+     * @throws NoSuchElementException if the script has no such setter
+     */
+    String getSetterType(String parameterName) {
+        return findAccessor(settersByName, parameterName).getType();
+    }
+
+    /**
+     * @param name name of a script result, case insensitive
+     * @return the type of the matching script getter
+     * @throws NoSuchElementException if the script has no such getter
+     */
+    String getGetterType(String name) {
+        return findAccessor(gettersByName, name).getType();
+    }
+
+    private Accessor findAccessor(Map<String, Accessor> accessors, String name) {
+        Accessor accessor = accessors.get(name.toLowerCase(Locale.ROOT));
+        if (accessor == null) {
+            throw new NoSuchElementException("No accessor: " + name + " in script: " + scriptInstance.getCode());
+        }
+        return accessor;
+    }
+
+    private static Map<String, Accessor> indexByName(List<Accessor> accessors) {
+        Map<String, Accessor> accessorsByName = new HashMap<>();
+        if (accessors != null) {
+            for (Accessor accessor : accessors) {
+                accessorsByName.putIfAbsent(accessor.getName().toLowerCase(Locale.ROOT), accessor);
+            }
+        }
+        return accessorsByName;
+    }
+}
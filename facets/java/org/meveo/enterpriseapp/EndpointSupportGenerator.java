@@ -0,0 +1,485 @@
+package org.meveo.enterpriseapp;
+
+import java.util.*;
+
+import com.github.javaparser.StaticJavaParser;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.ImportDeclaration;
+import com.github.javaparser.ast.Modifier;
+import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
+import com.github.javaparser.ast.expr.Name;
+import com.github.javaparser.ast.expr.StringLiteralExpr;
+
+/**
+ * Generates the support classes shared by the endpoint resources of a module WAR, in the rest package of the
+ * module next to the REST configuration class.
+ */
+class EndpointSupportGenerator {
+
+    static final String RESPONSE_CACHE_CLASS = "ResponseCache";
+    static final String RESPONSE_CACHE_RESOURCE_CLASS = "ResponseCacheResource";
+    static final String ENDPOINT_METRICS_CLASS = "EndpointMetrics";
+    static final String ENDPOINT_METRICS_RESOURCE_CLASS = "EndpointMetricsResource";
+    static final String JSON_STREAMS_CLASS = "JsonStreams";
+    static final String BULK_OPERATIONS_CLASS = "BulkOperations";
+    static final String BATCH_TRANSACTION_CLASS = "BatchTransaction";
+
+    private final String modulePackage;
+
+    /**
+     * @param moduleCode normalized code of the module
+     */
+    EndpointSupportGenerator(String moduleCode) {
+        this.modulePackage = "org.meveo." + moduleCode;
+    }
+
+    String getRestPackage() {
+        return modulePackage + ".rest";
+    }
+
+    /**
+     * @param className simple name of a support class
+     * @return path of the class in the module WAR repository
+     */
+    String getPath(String className) {
+        return "src/main/java/" + getRestPackage().replace('.', '/') + "/" + className + ".java";
+    }
+
+    /**
+     * Size bounded LRU cache of GET results with a time to live. Every entry gets a new entity tag, so a client
+     * holding the tag of a cached result is answered with a 304 until the entry expires.
+     */
+    String generateResponseCache() {
+        CompilationUnit cu = newCompilationUnit("java.util", "java.util.concurrent", "java.util.concurrent.atomic",
+                "javax.ws.rs.core");
+        ClassOrInterfaceDeclaration clazz = cu.addClass(RESPONSE_CACHE_CLASS, Modifier.Keyword.PUBLIC);
+        addMembers(clazz,
+                "private static final Map<String, ResponseCache> CACHES = new ConcurrentSkipListMap<>();",
+                "private static final AtomicLong VERSIONS = new AtomicLong();",
+                "private final int maxEntries;",
+                "private final long ttlMillis;",
+                "private final Map<String, Entry> entries;",
+                "private final AtomicLong hits = new AtomicLong();",
+                "private final AtomicLong misses = new AtomicLong();",
+                "private final AtomicLong evictions = new AtomicLong();",
+                "private final AtomicLong expirations = new AtomicLong();",
+                "private ResponseCache(int maxEntries, long ttlSeconds) {\n"
+                        + "    this.maxEntries = maxEntries;\n"
+                        + "    this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);\n"
+                        + "    this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {\n"
+                        + "        @Override\n"
+                        + "        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {\n"
+                        + "            if (size() > ResponseCache.this.maxEntries) {\n"
+                        + "                evictions.incrementAndGet();\n"
+                        + "                return true;\n"
+                        + "            }\n"
+                        + "            return false;\n"
+                        + "        }\n"
+                        + "    };\n"
+                        + "}",
+                "/** Cache of an endpoint, created on first use */\n"
+                        + "public static ResponseCache get(String name, int maxEntries, long ttlSeconds) {\n"
+                        + "    return CACHES.computeIfAbsent(name, k -> new ResponseCache(maxEntries, ttlSeconds));\n"
+                        + "}",
+                "public static Map<String, Map<String, Object>> getStatistics() {\n"
+                        + "    Map<String, Map<String, Object>> statistics = new LinkedHashMap<>();\n"
+                        + "    CACHES.forEach((name, cache) -> statistics.put(name, cache.getStatistic()));\n"
+                        + "    return statistics;\n"
+                        + "}",
+                "/** Key of the result of a call, from its caller and its path and query parameter values, so a result\n"
+                        + " * computed for a user is never served to another one */\n"
+                        + "public static String key(SecurityContext securityContext, Object... values) {\n"
+                        + "    java.security.Principal principal = securityContext != null ? securityContext.getUserPrincipal() : null;\n"
+                        + "    StringBuilder key = new StringBuilder(principal != null ? principal.getName() : \"\").append('\\u0000');\n"
+                        + "    for (Object value : values) {\n"
+                        + "        key.append(value).append('\\u0000');\n"
+                        + "    }\n"
+                        + "    return key.toString();\n"
+                        + "}",
+                "/** @return the entry of the key, or null if it is missing or expired */\n"
+                        + "public Entry get(String key) {\n"
+                        + "    long now = System.currentTimeMillis();\n"
+                        + "    synchronized (entries) {\n"
+                        + "        Entry entry = entries.get(key);\n"
+                        + "        if (entry != null && entry.expiresAt <= now) {\n"
+                        + "            entries.remove(key);\n"
+                        + "            expirations.incrementAndGet();\n"
+                        + "            entry = null;\n"
+                        + "        }\n"
+                        + "        (entry != null ? hits : misses).incrementAndGet();\n"
+                        + "        return entry;\n"
+                        + "    }\n"
+                        + "}",
+                "public Entry put(String key, Object value) {\n"
+                        + "    Entry entry = new Entry(value, new EntityTag(Long.toHexString(VERSIONS.incrementAndGet()), true),\n"
+                        + "            System.currentTimeMillis() + ttlMillis);\n"
+                        + "    synchronized (entries) {\n"
+                        + "        entries.put(key, entry);\n"
+                        + "    }\n"
+                        + "    return entry;\n"
+                        + "}",
+                "public void clear() {\n"
+                        + "    synchronized (entries) {\n"
+                        + "        entries.clear();\n"
+                        + "    }\n"
+                        + "}",
+                "public Map<String, Object> getStatistic() {\n"
+                        + "    Map<String, Object> statistic = new LinkedHashMap<>();\n"
+                        + "    long hitCount = hits.get();\n"
+                        + "    long missCount = misses.get();\n"
+                        + "    synchronized (entries) {\n"
+                        + "        statistic.put(\"size\", entries.size());\n"
+                        + "    }\n"
+                        + "    statistic.put(\"maxEntries\", maxEntries);\n"
+                        + "    statistic.put(\"ttlSeconds\", TimeUnit.MILLISECONDS.toSeconds(ttlMillis));\n"
+                        + "    statistic.put(\"hits\", hitCount);\n"
+                        + "    statistic.put(\"misses\", missCount);\n"
+                        + "    statistic.put(\"evictions\", evictions.get());\n"
+                        + "    statistic.put(\"expirations\", expirations.get());\n"
+                        + "    statistic.put(\"hitRatio\", hitCount + missCount == 0 ? 0d : (double) hitCount / (hitCount + missCount));\n"
+                        + "    return statistic;\n"
+                        + "}",
+                "public static class Entry {\n"
+                        + "    private final Object value;\n"
+                        + "    private final EntityTag entityTag;\n"
+                        + "    private final long expiresAt;\n"
+                        + "\n"
+                        + "    private Entry(Object value, EntityTag entityTag, long expiresAt) {\n"
+                        + "        this.value = value;\n"
+                        + "        this.entityTag = entityTag;\n"
+                        + "        this.expiresAt = expiresAt;\n"
+                        + "    }\n"
+                        + "\n"
+                        + "    public Object getValue() {\n"
+                        + "        return value;\n"
+                        + "    }\n"
+                        + "\n"
+                        + "    public EntityTag getEntityTag() {\n"
+                        + "        return entityTag;\n"
+                        + "    }\n"
+                        + "\n"
+                        + "    /** @return a 304 if the request holds the tag of the entry, the cached value otherwise */\n"
+                        + "    public Response toResponse(Request request) {\n"
+                        + "        Response.ResponseBuilder notModified = request.evaluatePreconditions(entityTag);\n"
+                        + "        if (notModified != null) {\n"
+                        + "            return notModified.tag(entityTag).build();\n"
+                        + "        }\n"
+                        + "        return Response.status(Response.Status.OK).entity(value).tag(entityTag).build();\n"
+                        + "    }\n"
+                        + "}");
+        return cu.toString();
+    }
+
+    /**
+     * Resource exposing the statistics of the response caches. It does not clear them, as any caller reaching the
+     * module could, entries expire after their time to live instead.
+     */
+    String generateResponseCacheResource() {
+        CompilationUnit cu = newCompilationUnit("java.util", "javax.ws.rs", "javax.ws.rs.core");
+        ClassOrInterfaceDeclaration clazz = cu.addClass(RESPONSE_CACHE_RESOURCE_CLASS, Modifier.Keyword.PUBLIC);
+        clazz.addSingleMemberAnnotation("Path", new StringLiteralExpr("_cache"));
+        addMembers(clazz,
+                "@GET\n"
+                        + "@Produces(MediaType.APPLICATION_JSON)\n"
+                        + "public Map<String, Map<String, Object>> getStatistics() {\n"
+                        + "    return ResponseCache.getStatistics();\n"
+                        + "}");
+        return cu.toString();
+    }
+
+    /**
+     * Request and error counters of an endpoint with latency histograms of whole requests and of script runs.
+     * Histograms count durations in logarithmic microsecond buckets, four per power of two, percentiles are
+     * bucket upper bounds.
+     */
+    String generateEndpointMetrics() {
+        CompilationUnit cu = newCompilationUnit("java.util", "java.util.concurrent", "java.util.concurrent.atomic");
+        ClassOrInterfaceDeclaration clazz = cu.addClass(ENDPOINT_METRICS_CLASS, Modifier.Keyword.PUBLIC);
+        addMembers(clazz,
+                "private static final Map<String, EndpointMetrics> METRICS = new ConcurrentSkipListMap<>();",
+                "private final long startTime = System.nanoTime();",
+                "private final AtomicLong errors = new AtomicLong();",
+                "private final AtomicLong failures = new AtomicLong();",
+                "private final Histogram requests = new Histogram();",
+                "private final Histogram scripts = new Histogram();",
+                "/** Metrics of an endpoint, named after its HTTP method and code */\n"
+                        + "public static EndpointMetrics get(String endpointCode, String httpMethod) {\n"
+                        + "    return METRICS.computeIfAbsent(httpMethod + \" \" + endpointCode, k -> new EndpointMetrics());\n"
+                        + "}",
+                "public static Map<String, Map<String, Object>> getStatistics() {\n"
+                        + "    Map<String, Map<String, Object>> statistics = new LinkedHashMap<>();\n"
+                        + "    METRICS.forEach((name, metrics) -> statistics.put(name, metrics.getStatistic()));\n"
+                        + "    return statistics;\n"
+                        + "}",
+                "/** Total time of a request, including cache lookups and waiting for the executor */\n"
+                        + "public void recordRequest(long nanos) {\n"
+                        + "    requests.record(nanos);\n"
+                        + "}",
+                "/** Time spent in the script setters, init, execute and finalize */\n"
+                        + "public void recordScript(long nanos) {\n"
+                        + "    scripts.record(nanos);\n"
+                        + "}",
+                "/** Request answered with a BAD_REQUEST */\n"
+                        + "public void error() {\n"
+                        + "    errors.incrementAndGet();\n"
+                        + "}",
+                "/** Request failed with an unexpected exception */\n"
+                        + "public void failure() {\n"
+                        + "    failures.incrementAndGet();\n"
+                        + "}",
+                "public Map<String, Object> getStatistic() {\n"
+                        + "    Map<String, Object> statistic = new LinkedHashMap<>();\n"
+                        + "    long count = requests.count.get();\n"
+                        + "    long errorCount = errors.get() + failures.get();\n"
+                        + "    double uptimeSeconds = (System.nanoTime() - startTime) / 1e9;\n"
+                        + "    statistic.put(\"requests\", count);\n"
+                        + "    statistic.put(\"errors\", errors.get());\n"
+                        + "    statistic.put(\"failures\", failures.get());\n"
+                        + "    statistic.put(\"errorRate\", count == 0 ? 0d : (double) errorCount / count);\n"
+                        + "    statistic.put(\"ratePerSecond\", uptimeSeconds == 0 ? 0d : count / uptimeSeconds);\n"
+                        + "    statistic.put(\"request\", requests.getStatistic());\n"
+                        + "    statistic.put(\"script\", scripts.getStatistic());\n"
+                        + "    return statistic;\n"
+                        + "}",
+                "public static class Histogram {\n"
+                        + "    private static final int BUCKETS_PER_OCTAVE = 4;\n"
+                        + "    private static final int BUCKETS = 40 * BUCKETS_PER_OCTAVE;\n"
+                        + "    private static final double LN_2 = Math.log(2);\n"
+                        + "    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);\n"
+                        + "    private final AtomicLong count = new AtomicLong();\n"
+                        + "    private final AtomicLong totalNanos = new AtomicLong();\n"
+                        + "    private final AtomicLong maxNanos = new AtomicLong();\n"
+                        + "\n"
+                        + "    public void record(long nanos) {\n"
+                        + "        long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos));\n"
+                        + "        buckets.incrementAndGet(Math.min(BUCKETS - 1, (int) (Math.log(micros) * BUCKETS_PER_OCTAVE / LN_2)));\n"
+                        + "        count.incrementAndGet();\n"
+                        + "        totalNanos.addAndGet(nanos);\n"
+                        + "        maxNanos.accumulateAndGet(nanos, Math::max);\n"
+                        + "    }\n"
+                        + "\n"
+                        + "    /** @return upper bound in milliseconds of the bucket holding the percentile */\n"
+                        + "    public double percentile(double percentile) {\n"
+                        + "        long total = 0;\n"
+                        + "        long[] counts = new long[BUCKETS];\n"
+                        + "        for (int i = 0; i < BUCKETS; i++) {\n"
+                        + "            counts[i] = buckets.get(i);\n"
+                        + "            total += counts[i];\n"
+                        + "        }\n"
+                        + "        long rank = (long) Math.ceil(total * percentile / 100);\n"
+                        + "        long seen = 0;\n"
+                        + "        for (int i = 0; i < BUCKETS; i++) {\n"
+                        + "            seen += counts[i];\n"
+                        + "            if (seen >= rank && counts[i] > 0) {\n"
+                        + "                return Math.min(Math.pow(2, (double) (i + 1) / BUCKETS_PER_OCTAVE) / 1000, maxNanos.get() / 1e6);\n"
+                        + "            }\n"
+                        + "        }\n"
+                        + "        return 0d;\n"
+                        + "    }\n"
+                        + "\n"
+                        + "    public Map<String, Object> getStatistic() {\n"
+                        + "        Map<String, Object> statistic = new LinkedHashMap<>();\n"
+                        + "        long countValue = count.get();\n"
+                        + "        statistic.put(\"count\", countValue);\n"
+                        + "        statistic.put(\"meanMillis\", countValue == 0 ? 0d : totalNanos.get() / 1e6 / countValue);\n"
+                        + "        statistic.put(\"maxMillis\", maxNanos.get() / 1e6);\n"
+                        + "        statistic.put(\"p50Millis\", percentile(50));\n"
+                        + "        statistic.put(\"p95Millis\", percentile(95));\n"
+                        + "        statistic.put(\"p99Millis\", percentile(99));\n"
+                        + "        return statistic;\n"
+                        + "    }\n"
+                        + "}");
+        return cu.toString();
+    }
+
+    /**
+     * Resource exposing the metrics of the endpoints of the module
+     */
+    String generateEndpointMetricsResource() {
+        CompilationUnit cu = newCompilationUnit("java.util", "javax.ws.rs", "javax.ws.rs.core");
+        ClassOrInterfaceDeclaration clazz = cu.addClass(ENDPOINT_METRICS_RESOURCE_CLASS, Modifier.Keyword.PUBLIC);
+        clazz.addSingleMemberAnnotation("Path", new StringLiteralExpr("_metrics"));
+        addMembers(clazz,
+                "@GET\n"
+                        + "@Produces(MediaType.APPLICATION_JSON)\n"
+                        + "public Map<String, Map<String, Object>> getStatistics() {\n"
+                        + "    return EndpointMetrics.getStatistics();\n"
+                        + "}");
+        return cu.toString();
+    }
+
+    /**
+     * Writes iterable results as a JSON array, one element at a time, flushing every few elements so the
+     * response is sent in chunks while the iterable is consumed. Items are serialized by the ObjectMapper of the
+     * JAX-RS application, resolved through its providers, so they are written like non streamed results.
+     */
+    String generateJsonStreams() {
+        CompilationUnit cu = newCompilationUnit("javax.ws.rs.core", "javax.ws.rs.ext");
+        cu.getImports().add(new ImportDeclaration(new Name("com.fasterxml.jackson.core.JsonGenerator"), false, false));
+        cu.getImports().add(
+                new ImportDeclaration(new Name("com.fasterxml.jackson.databind.ObjectMapper"), false, false));
+        ClassOrInterfaceDeclaration clazz = cu.addClass(JSON_STREAMS_CLASS, Modifier.Keyword.PUBLIC);
+        addMembers(clazz,
+                "/** Mapper of the JSON provider when the application does not resolve one */\n"
+                        + "private static final ObjectMapper DEFAULT_OBJECT_MAPPER = new ObjectMapper();",
+                "private static final int FLUSH_INTERVAL = 64;",
+                "private JsonStreams() {\n"
+                        + "}",
+                "/** @return the output writing the items, or null for a null result */\n"
+                        + "public static StreamingOutput array(Iterable<?> items, Providers providers) {\n"
+                        + "    if (items == null) {\n"
+                        + "        return null;\n"
+                        + "    }\n"
+                        + "    ObjectMapper objectMapper = getObjectMapper(providers);\n"
+                        + "    return output -> {\n"
+                        + "        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(output)) {\n"
+                        + "            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);\n"
+                        + "            generator.writeStartArray();\n"
+                        + "            int written = 0;\n"
+                        + "            for (Object item : items) {\n"
+                        + "                generator.writeObject(item);\n"
+                        + "                if (++written % FLUSH_INTERVAL == 0) {\n"
+                        + "                    generator.flush();\n"
+                        + "                }\n"
+                        + "            }\n"
+                        + "            generator.writeEndArray();\n"
+                        + "        }\n"
+                        + "    };\n"
+                        + "}",
+                "private static ObjectMapper getObjectMapper(Providers providers) {\n"
+                        + "    ContextResolver<ObjectMapper> resolver = providers != null\n"
+                        + "            ? providers.getContextResolver(ObjectMapper.class, MediaType.APPLICATION_JSON_TYPE)\n"
+                        + "            : null;\n"
+                        + "    ObjectMapper objectMapper = resolver != null ? resolver.getContext(Object.class) : null;\n"
+                        + "    return objectMapper != null ? objectMapper : DEFAULT_OBJECT_MAPPER;\n"
+                        + "}");
+        return cu.toString();
+    }
+
+    /**
+     * Runs the items of a bulk request in batches, each batch in its own transaction. An item failing with a
+     * BusinessException stops and rolls back its batch, so none of its writes are committed: the item is reported
+     * with a 400 and the other items of the batch with a 424. Any other failure rolls the batch back and every item
+     * of the batch is reported with a 500. The next batches run either way.
+     */
+    String generateBulkOperations() {
+        CompilationUnit cu = newCompilationUnit("java.util");
+        cu.getImports().add(
+                new ImportDeclaration(new Name("org.meveo.admin.exception.BusinessException"), false, false));
+        ClassOrInterfaceDeclaration clazz = cu.addClass(BULK_OPERATIONS_CLASS, Modifier.Keyword.PUBLIC);
+        addMembers(clazz,
+                "@FunctionalInterface\n"
+                        + "public interface ItemOperation<T> {\n"
+                        + "    /** @return the result of the script for the item */\n"
+                        + "    Object execute(T item) throws BusinessException;\n"
+                        + "}",
+                "private BulkOperations() {\n"
+                        + "}",
+                "public static <T> List<ItemResult> execute(BatchTransaction batchTransaction, List<T> items, int batchSize,\n"
+                        + "        ItemOperation<T> operation) {\n"
+                        + "    List<ItemResult> results = new ArrayList<>(items.size());\n"
+                        + "    for (int start = 0; start < items.size(); start += batchSize) {\n"
+                        + "        int offset = start;\n"
+                        + "        List<T> batch = items.subList(start, Math.min(items.size(), start + batchSize));\n"
+                        + "        try {\n"
+                        + "            results.addAll(batchTransaction.run(() -> executeBatch(batch, offset, operation)));\n"
+                        + "        } catch (ItemFailure e) {\n"
+                        + "            for (int i = 0; i < batch.size(); i++) {\n"
+                        + "                results.add(offset + i == e.index ? new ItemResult(e.index, 400, null, e.getMessage())\n"
+                        + "                        : new ItemResult(offset + i, 424, null, \"Batch rolled back: item \" + e.index + \" failed\"));\n"
+                        + "            }\n"
+                        + "        } catch (RuntimeException e) {\n"
+                        + "            String error = \"Batch rolled back: \" + (e.getCause() != null ? e.getCause() : e);\n"
+                        + "            for (int i = 0; i < batch.size(); i++) {\n"
+                        + "                results.add(new ItemResult(offset + i, 500, null, error));\n"
+                        + "            }\n"
+                        + "        }\n"
+                        + "    }\n"
+                        + "    return results;\n"
+                        + "}",
+                "private static <T> List<ItemResult> executeBatch(List<T> batch, int offset, ItemOperation<T> operation) {\n"
+                        + "    List<ItemResult> results = new ArrayList<>(batch.size());\n"
+                        + "    for (int i = 0; i < batch.size(); i++) {\n"
+                        + "        try {\n"
+                        + "            results.add(new ItemResult(offset + i, 200, operation.execute(batch.get(i)), null));\n"
+                        + "        } catch (BusinessException e) {\n"
+                        + "            throw new ItemFailure(offset + i, e);\n"
+                        + "        }\n"
+                        + "    }\n"
+                        + "    return results;\n"
+                        + "}",
+                "/** Business failure of an item, unchecked so that it rolls back the transaction of its batch */\n"
+                        + "private static class ItemFailure extends RuntimeException {\n"
+                        + "    private final int index;\n"
+                        + "\n"
+                        + "    private ItemFailure(int index, BusinessException cause) {\n"
+                        + "        super(cause.getMessage(), cause);\n"
+                        + "        this.index = index;\n"
+                        + "    }\n"
+                        + "}",
+                "public static class ItemResult {\n"
+                        + "    private final int index;\n"
+                        + "    private final int status;\n"
+                        + "    private final Object result;\n"
+                        + "    private final String error;\n"
+                        + "\n"
+                        + "    public ItemResult(int index, int status, Object result, String error) {\n"
+                        + "        this.index = index;\n"
+                        + "        this.status = status;\n"
+                        + "        this.result = result;\n"
+                        + "        this.error = error;\n"
+                        + "    }\n"
+                        + "\n"
+                        + "    public int getIndex() {\n"
+                        + "        return index;\n"
+                        + "    }\n"
+                        + "\n"
+                        + "    public int getStatus() {\n"
+                        + "        return status;\n"
+                        + "    }\n"
+                        + "\n"
+                        + "    public Object getResult() {\n"
+                        + "        return result;\n"
+                        + "    }\n"
+                        + "\n"
+                        + "    public String getError() {\n"
+                        + "        return error;\n"
+                        + "    }\n"
+                        + "}");
+        return cu.toString();
+    }
+
+    /**
+     * Bean running a batch of a bulk request in a new transaction, committed when the batch returns
+     */
+    String generateBatchTransaction() {
+        CompilationUnit cu = newCompilationUnit();
+        cu.getImports().add(new ImportDeclaration(new Name("java.util.function.Supplier"), false, false));
+        cu.getImports().add(
+                new ImportDeclaration(new Name("javax.enterprise.context.ApplicationScoped"), false, false));
+        cu.getImports().add(new ImportDeclaration(new Name("javax.transaction.Transactional"), false, false));
+        ClassOrInterfaceDeclaration clazz = cu.addClass(BATCH_TRANSACTION_CLASS, Modifier.Keyword.PUBLIC);
+        clazz.addMarkerAnnotation("ApplicationScoped");
+        addMembers(clazz,
+                "@Transactional(Transactional.TxType.REQUIRES_NEW)\n"
+                        + "public <T> T run(Supplier<T> batch) {\n"
+                        + "    return batch.get();\n"
+                        + "}");
+        return cu.toString();
+    }
+
+    private CompilationUnit newCompilationUnit(String... importedPackages) {
+        CompilationUnit cu = new CompilationUnit();
+        cu.setPackageDeclaration(getRestPackage());
+        for (String importedPackage : importedPackages) {
+            cu.getImports().add(new ImportDeclaration(new Name(importedPackage), false, true));
+        }
+        return cu;
+    }
+
+    private static void addMembers(ClassOrInterfaceDeclaration clazz, String... members) {
+        for (String member : members) {
+            clazz.addMember(StaticJavaParser.parseBodyDeclaration(member));
+        }
+    }
+}
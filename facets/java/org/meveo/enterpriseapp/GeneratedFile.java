@@ -0,0 +1,43 @@
+package org.meveo.enterpriseapp;
+
+/**
+ * Content of a file generated into the module WAR repository, the path is relative to the repository. A file
+ * reused from the previous run has an inputs hash and no content.
+ */
+class GeneratedFile {
+
+    private final String path;
+    private final String content;
+    private final String inputHash;
+
+    GeneratedFile(String path, String content) {
+        this(path, content, null);
+    }
+
+    /**
+     * @param path      path relative to the repository
+     * @param content   content of the file, null if it is reused
+     * @param inputHash hash of the generation inputs of the file, null if it is not known
+     */
+    GeneratedFile(String path, String content, String inputHash) {
+        this.path = path;
+        this.content = content;
+        this.inputHash = inputHash;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    String getContent() {
+        return content;
+    }
+
+    String getInputHash() {
+        return inputHash;
+    }
+
+    boolean isReused() {
+        return content == null && inputHash != null;
+    }
+}
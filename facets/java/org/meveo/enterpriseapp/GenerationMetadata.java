@@ -0,0 +1,86 @@
+package org.meveo.enterpriseapp;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+
+import org.meveo.admin.exception.BusinessException;
+import org.meveo.model.scripts.ScriptInstance;
+import org.meveo.model.technicalservice.endpoint.Endpoint;
+import org.meveo.service.technicalservice.endpoint.EndpointService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Snapshot of the endpoints of a module and of their script instances, loaded once at the start of a
+ * generation with a fixed number of queries whatever the number of endpoints.
+ */
+class GenerationMetadata {
+    private static final Logger LOG = LoggerFactory.getLogger(GenerationMetadata.class);
+
+    private final List<EndpointDefinition> endpointDefinitions;
+
+    private GenerationMetadata(List<EndpointDefinition> endpointDefinitions) {
+        this.endpointDefinitions = endpointDefinitions;
+    }
+
+    /**
+     * @param endpointService service giving access to the persistence context
+     * @param endpointCodes   codes of the module endpoints
+     * @return the endpoint definitions, in the order of the endpoint codes
+     */
+    static GenerationMetadata load(EndpointService endpointService, List<String> endpointCodes)
+            throws BusinessException {
+        if (endpointCodes.isEmpty()) {
+            return new GenerationMetadata(Collections.emptyList());
+        }
+
+        EntityManager entityManager = endpointService.getEntityManager();
+        List<Endpoint> endpointList = entityManager
+                .createQuery("select distinct e from Endpoint e left join fetch e.service "
+                        + "left join fetch e.pathParameters where e.code in :codes", Endpoint.class)
+                .setParameter("codes", endpointCodes)
+                .getResultList();
+        if (!endpointList.isEmpty()) {
+            entityManager.createQuery("select distinct e from Endpoint e left join fetch e.parametersMapping "
+                    + "where e in :endpoints", Endpoint.class)
+                         .setParameter("endpoints", endpointList)
+                         .getResultList();
+        }
+        Map<String, Endpoint> endpoints = endpointList.stream().collect(Collectors.toMap(Endpoint::getCode,
+                Function.identity()));
+
+        Set<String> serviceCodes = endpointList.stream().map(endpoint -> endpoint.getService().getCode())
+                                               .collect(Collectors.toSet());
+        Map<String, ScriptInstance> scriptInstances = entityManager
+                .createQuery("select s from ScriptInstance s where s.code in :codes", ScriptInstance.class)
+                .setParameter("codes", serviceCodes)
+                .getResultList()
+                .stream()
+                .collect(Collectors.toMap(ScriptInstance::getCode, Function.identity()));
+
+        List<EndpointDefinition> endpointDefinitions = new ArrayList<>(endpointCodes.size());
+        for (String endpointCode : endpointCodes) {
+            Endpoint endpoint = endpoints.get(endpointCode);
+            if (endpoint == null) {
+                throw new BusinessException("Endpoint: " + endpointCode + " not found");
+            }
+            ScriptInstance scriptInstance = scriptInstances.get(endpoint.getService().getCode());
+            if (scriptInstance == null) {
+                throw new BusinessException("Script: " + endpoint.getService().getCode() + " of endpoint: "
+                        + endpointCode + " not found");
+            }
+            endpointDefinitions.add(new EndpointDefinition(endpoint, scriptInstance));
+        }
+        LOG.info("Loaded metadata of {} endpoints and {} scripts", endpointDefinitions.size(),
+                scriptInstances.size());
+        return new GenerationMetadata(endpointDefinitions);
+    }
+
+    List<EndpointDefinition> getEndpointDefinitions() {
+        return endpointDefinitions;
+    }
+}
@@ -0,0 +1,163 @@
+package org.meveo.enterpriseapp;
+
+import java.util.*;
+
+import org.meveo.commons.utils.ParamBean;
+
+/**
+ * Options of the code generated for the endpoints of a module.
+ * <p>
+ * An option is looked up for the endpoint, then for the module, then globally:
+ * <pre>
+ * enterpriseapp.generation.[module code].[endpoint code].[option]
+ * enterpriseapp.generation.[module code].[option]
+ * enterpriseapp.generation.[option]
+ * </pre>
+ */
+class GenerationOptions {
+
+    static final String PREFIX = "enterpriseapp.generation.";
+    static final String RESOURCE_SCOPE = "resourceScope";
+    static final String ASYNC = "async";
+    static final String ASYNC_TIMEOUT = "asyncTimeout";
+    static final String ASYNC_EXECUTOR = "asyncExecutor";
+    static final String RESPONSE_CACHE = "responseCache";
+    static final String RESPONSE_CACHE_SIZE = "responseCacheSize";
+    static final String RESPONSE_CACHE_TTL = "responseCacheTtl";
+    static final String METRICS = "metrics";
+    static final String STREAMING = "streaming";
+    static final String BULK = "bulk";
+    static final String BULK_BATCH_SIZE = "bulkBatchSize";
+    static final String BENCHMARK = "benchmark";
+
+    private static final List<String> OPTIONS = Arrays.asList(RESOURCE_SCOPE, ASYNC, ASYNC_TIMEOUT, ASYNC_EXECUTOR,
+            RESPONSE_CACHE, RESPONSE_CACHE_SIZE, RESPONSE_CACHE_TTL, METRICS, STREAMING, BULK, BULK_BATCH_SIZE,
+            BENCHMARK);
+
+    private static final String DEFAULT_ASYNC_TIMEOUT_SECONDS = "60";
+    private static final String DEFAULT_ASYNC_EXECUTOR = "java:comp/DefaultManagedExecutorService";
+    private static final String DEFAULT_RESPONSE_CACHE_SIZE = "1000";
+    private static final String DEFAULT_RESPONSE_CACHE_TTL_SECONDS = "60";
+    private static final String DEFAULT_BULK_BATCH_SIZE = "100";
+
+    /**
+     * Lifecycle of the generated resources. REQUEST resources are created for every request with their own
+     * script. APPLICATION resources are shared and STATELESS resources are pooled EJBs, both obtain a new script
+     * for every call as scripts keep the state of a call in their fields: sharing only saves creating the
+     * resource and its constant parameters.
+     */
+    enum ResourceScope {
+        REQUEST, APPLICATION, STATELESS
+    }
+
+    private final ParamBean config;
+    private final String moduleCode;
+
+    GenerationOptions(ParamBean config, String moduleCode) {
+        this.config = config;
+        this.moduleCode = moduleCode;
+    }
+
+    /**
+     * @param endpointCode code of the endpoint
+     * @param option       name of the option
+     * @param defaultValue value used when the option is not set at any level
+     * @return the most specific value of the option
+     */
+    String get(String endpointCode, String option, String defaultValue) {
+        String value = config.getProperty(PREFIX + moduleCode + "." + endpointCode + "." + option, null);
+        if (value == null) {
+            value = config.getProperty(PREFIX + moduleCode + "." + option, null);
+        }
+        if (value == null) {
+            value = config.getProperty(PREFIX + option, defaultValue);
+        }
+        return value != null ? value.trim() : null;
+    }
+
+    /**
+     * @return the values of all the options of the endpoint, part of the generation inputs of its files
+     */
+    Map<String, String> getValues(String endpointCode) {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String option : OPTIONS) {
+            values.put(option, get(endpointCode, option, null));
+        }
+        return values;
+    }
+
+    ResourceScope getResourceScope(String endpointCode) {
+        return ResourceScope.valueOf(get(endpointCode, RESOURCE_SCOPE, ResourceScope.REQUEST.name()).toUpperCase());
+    }
+
+    /**
+     * @return true if the endpoint resumes an AsyncResponse from a managed executor instead of returning the response
+     */
+    boolean isAsync(String endpointCode) {
+        return Boolean.parseBoolean(get(endpointCode, ASYNC, "false"));
+    }
+
+    /**
+     * @return seconds after which a suspended response is resumed with a 503, 0 to wait for the script
+     */
+    long getAsyncTimeout(String endpointCode) {
+        return Long.parseLong(get(endpointCode, ASYNC_TIMEOUT, DEFAULT_ASYNC_TIMEOUT_SECONDS));
+    }
+
+    /**
+     * @return JNDI name of the managed executor running the scripts of asynchronous endpoints
+     */
+    String getAsyncExecutor(String endpointCode) {
+        return get(endpointCode, ASYNC_EXECUTOR, DEFAULT_ASYNC_EXECUTOR);
+    }
+
+    /**
+     * @return true if the results of the endpoint are cached, only GET endpoints whose results are not streamed are
+     */
+    boolean isResponseCached(String endpointCode) {
+        return Boolean.parseBoolean(get(endpointCode, RESPONSE_CACHE, "false"));
+    }
+
+    int getResponseCacheSize(String endpointCode) {
+        return Integer.parseInt(get(endpointCode, RESPONSE_CACHE_SIZE, DEFAULT_RESPONSE_CACHE_SIZE));
+    }
+
+    long getResponseCacheTtl(String endpointCode) {
+        return Long.parseLong(get(endpointCode, RESPONSE_CACHE_TTL, DEFAULT_RESPONSE_CACHE_TTL_SECONDS));
+    }
+
+    /**
+     * @return true if the endpoint records its request and script times, exposed on the _metrics resource
+     */
+    boolean isMetricsEnabled(String endpointCode) {
+        return Boolean.parseBoolean(get(endpointCode, METRICS, "false"));
+    }
+
+    /**
+     * @return true if a collection or iterable result of the endpoint is written as a stream of JSON elements
+     */
+    boolean isStreaming(String endpointCode) {
+        return Boolean.parseBoolean(get(endpointCode, STREAMING, "false"));
+    }
+
+    /**
+     * @return true if a POST or PUT endpoint with a DTO gets a companion method taking an array of DTO
+     */
+    boolean isBulk(String endpointCode) {
+        return Boolean.parseBoolean(get(endpointCode, BULK, "false"));
+    }
+
+    /**
+     * @return number of items of a bulk request run in one transaction
+     */
+    int getBulkBatchSize(String endpointCode) {
+        return Math.max(1, Integer.parseInt(get(endpointCode, BULK_BATCH_SIZE, DEFAULT_BULK_BATCH_SIZE)));
+    }
+
+    /**
+     * @return true if a JMH benchmark of the endpoint is generated in the src/jmh/java source set of the module WAR
+     */
+    boolean isBenchmark(String endpointCode) {
+        return Boolean.parseBoolean(get(endpointCode, BENCHMARK, "false"));
+    }
+}
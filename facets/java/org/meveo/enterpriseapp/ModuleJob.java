@@ -0,0 +1,278 @@
+package org.meveo.enterpriseapp;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import org.meveo.admin.exception.BusinessException;
+import org.meveo.api.persistence.CrossStorageApi;
+import org.meveo.model.customEntities.JavaEnterpriseApp;
+import org.meveo.model.customEntities.JavaEnterpriseAppRun;
+import org.meveo.model.storage.Repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * A generation or install run on one or more JavaEnterpriseApp entities.
+ * <p>
+ * The state, current phase, phase timings, counters and result of the job are stored on the entities, each
+ * time in a transaction of its own so clients can poll them while the job runs, entities that are not stored
+ * yet are skipped. Every run is also kept as a
+ * JavaEnterpriseAppRun of each entity and recorded in the pipeline metrics under job.[type]. Cancellation is
+ * cooperative: the job stops at the start of its next phase, the running phase is never interrupted so files,
+ * repositories and the EAR are not left half written.
+ */
+public class ModuleJob {
+    private static final Logger LOG = LoggerFactory.getLogger(ModuleJob.class);
+
+    public enum State {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED
+    }
+
+    @FunctionalInterface
+    public interface Task {
+        /**
+         * @param job job running the task, to report phases and check cancellation
+         * @return the result message of the task
+         */
+        String run(ModuleJob job) throws BusinessException;
+    }
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final String type;
+    private final List<JavaEnterpriseApp> javaEnterpriseApps;
+    private final CrossStorageApi crossStorageApi;
+    private final Repository repository;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final Map<String, Long> timings = new LinkedHashMap<>();
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+
+    private String phase;
+    private long queuedMillis;
+    private long startTime;
+    private long phaseStartTime;
+
+    /**
+     * @param type               type of job, such as generate or install
+     * @param javaEnterpriseApps entities the job runs on
+     * @param crossStorageApi    API used to store the job progress on the entities
+     * @param repository         repository of the entities
+     */
+    public ModuleJob(String type, List<JavaEnterpriseApp> javaEnterpriseApps, CrossStorageApi crossStorageApi,
+            Repository repository) {
+        this.type = type;
+        this.javaEnterpriseApps = javaEnterpriseApps;
+        this.crossStorageApi = crossStorageApi;
+        this.repository = repository;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public List<String> getModuleCodes() {
+        return javaEnterpriseApps.stream().map(JavaEnterpriseApp::getCode).collect(Collectors.toList());
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * End the current phase and start a new one
+     *
+     * @param name name of the new phase
+     * @throws CancellationException if the job was cancelled
+     */
+    public void phase(String name) {
+        checkCancelled();
+        endPhase();
+        phase = name;
+        phaseStartTime = System.nanoTime();
+        LOG.info("Job: {} of modules: {}, phase: {}", type, getModuleCodes(), name);
+        store(State.RUNNING, null);
+    }
+
+    /**
+     * Add to a counter of the run, such as files copied or bytes written
+     *
+     * @param name   name of the counter
+     * @param amount amount to add
+     */
+    public void count(String name, long amount) {
+        counters.merge(name, amount, Long::sum);
+    }
+
+    /**
+     * @throws CancellationException if the job was cancelled
+     */
+    public void checkCancelled() {
+        if (cancelled.get()) {
+            throw new CancellationException("Job: " + type + " of modules: " + getModuleCodes() + " was cancelled");
+        }
+    }
+
+    void queued() {
+        store(State.QUEUED, null);
+    }
+
+    void queuedFor(long millis) {
+        queuedMillis = millis;
+    }
+
+    /**
+     * @return true if the job had not started yet, and will not
+     */
+    boolean cancel() {
+        cancelled.set(true);
+        if (started.compareAndSet(false, true)) {
+            store(State.CANCELLED, "Cancelled before start");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Run the task and store its outcome on the entities
+     *
+     * @return the result message of the task, or null if the job was cancelled before it started
+     */
+    String run(Task task) throws BusinessException {
+        if (!started.compareAndSet(false, true)) {
+            return null;
+        }
+        startTime = System.nanoTime();
+        for (JavaEnterpriseApp javaEnterpriseApp : javaEnterpriseApps) {
+            javaEnterpriseApp.setJobStartDate(Instant.now());
+            javaEnterpriseApp.setJobEndDate(null);
+        }
+        timings.clear();
+        timings.put("queued", queuedMillis);
+        counters.clear();
+        try {
+            store(State.RUNNING, null);
+            String result = task.run(this);
+            end(State.SUCCEEDED, result);
+            return result;
+        } catch (CancellationException e) {
+            end(State.CANCELLED, "Cancelled after phase: " + phase);
+            LOG.info(e.getMessage());
+            return null;
+        } catch (BusinessException | RuntimeException e) {
+            end(State.FAILED, e.getMessage());
+            throw e;
+        }
+    }
+
+    private void end(State state, String result) {
+        endPhase();
+        long totalMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        store(state, result);
+        LOG.info("Job: {} of modules: {} {} in {} ms, timings: {}, counters: {}", type, getModuleCodes(),
+                state, totalMillis, timings, counters);
+
+        String metricPrefix = "job." + type + ".";
+        PipelineMetrics.increment(metricPrefix + state.name().toLowerCase());
+        PipelineMetrics.record(metricPrefix + "total", totalMillis);
+        timings.forEach((name, millis) -> PipelineMetrics.record(metricPrefix + "phase." + name, millis));
+        counters.forEach((name, amount) -> PipelineMetrics.add(metricPrefix + name, amount));
+
+        storeRun(state, result, totalMillis);
+    }
+
+    private void endPhase() {
+        if (phase != null) {
+            timings.put(phase, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - phaseStartTime));
+            phase = null;
+        }
+    }
+
+    private void store(State state, String result) {
+        String jobTimings = null;
+        String jobCounters = null;
+        if (startTime != 0) {
+            Map<String, Long> allTimings = new LinkedHashMap<>(timings);
+            allTimings.put("total", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+            jobTimings = toJson(allTimings);
+            jobCounters = toJson(counters);
+        }
+        boolean ended = state == State.SUCCEEDED || state == State.FAILED || state == State.CANCELLED;
+        for (JavaEnterpriseApp javaEnterpriseApp : javaEnterpriseApps) {
+            javaEnterpriseApp.setJobType(type);
+            javaEnterpriseApp.setJobState(state.name());
+            javaEnterpriseApp.setJobPhase(phase);
+            javaEnterpriseApp.setJobTimings(jobTimings);
+            javaEnterpriseApp.setJobCounters(jobCounters);
+            if (ended) {
+                javaEnterpriseApp.setJobEndDate(Instant.now());
+                javaEnterpriseApp.setLastResult(result);
+            }
+            if (javaEnterpriseApp.getUuid() == null) {
+                continue;
+            }
+            try {
+                createOrUpdate(javaEnterpriseApp);
+            } catch (BusinessException | RuntimeException e) {
+                LOG.warn("Failed to store job state: {} of module: {}", state, javaEnterpriseApp.getCode(), e);
+            }
+        }
+    }
+
+    /*
+     * Keep the run in the history of the entities
+     */
+    private void storeRun(State state, String result, long totalMillis) {
+        String runTimings = toJson(timings);
+        String runCounters = toJson(counters);
+        for (JavaEnterpriseApp javaEnterpriseApp : javaEnterpriseApps) {
+            if (javaEnterpriseApp.getUuid() == null) {
+                continue;
+            }
+            JavaEnterpriseAppRun run = new JavaEnterpriseAppRun();
+            run.setJavaEnterpriseApp(javaEnterpriseApp);
+            run.setJobType(type);
+            run.setJobState(state.name());
+            run.setStartDate(javaEnterpriseApp.getJobStartDate());
+            run.setEndDate(javaEnterpriseApp.getJobEndDate());
+            run.setDurationMillis(totalMillis);
+            run.setTimings(runTimings);
+            run.setCounters(runCounters);
+            run.setResult(result);
+            try {
+                createOrUpdate(run);
+            } catch (BusinessException | RuntimeException e) {
+                LOG.warn("Failed to store run of job: {} of module: {}", type, javaEnterpriseApp.getCode(), e);
+            }
+        }
+    }
+
+    private void createOrUpdate(Object entity) throws BusinessException {
+        ModuleJobs.inNewTransaction(() -> {
+            try {
+                return crossStorageApi.createOrUpdate(repository, entity);
+            } catch (BusinessException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new BusinessException(e);
+            }
+        });
+    }
+
+    private String toJson(Map<String, Long> values) {
+        try {
+            return OBJECT_MAPPER.writeValueAsString(values);
+        } catch (JsonProcessingException e) {
+            LOG.warn("Failed to serialize job values: {}", values, e);
+            return null;
+        }
+    }
+}
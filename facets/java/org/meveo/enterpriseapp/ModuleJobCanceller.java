@@ -0,0 +1,40 @@
+package org.meveo.enterpriseapp;
+
+import java.util.*;
+
+import org.meveo.admin.exception.BusinessException;
+import org.meveo.model.customEntities.CustomEntityInstance;
+import org.meveo.model.customEntities.JavaEnterpriseApp;
+import org.meveo.model.persistence.CEIUtils;
+import org.meveo.service.script.Script;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cancel the queued or running generation or install job of a module.
+ */
+public class ModuleJobCanceller extends Script {
+    private static final Logger LOG = LoggerFactory.getLogger(ModuleJobCanceller.class);
+
+    @Override
+    public void execute(Map<String, Object> parameters) throws BusinessException {
+        CustomEntityInstance cei = (CustomEntityInstance) parameters.get(CONTEXT_ENTITY);
+        JavaEnterpriseApp javaEnterpriseApp = CEIUtils.ceiToPojo(cei, JavaEnterpriseApp.class);
+        String moduleCode = javaEnterpriseApp.getCode();
+
+        if (StringUtils.isEmpty(moduleCode)) {
+            throw new BusinessException("No module code was provided.");
+        }
+
+        String message;
+        if (ModuleJobs.cancel(moduleCode)) {
+            message = "Requested cancellation of the job of module: " + moduleCode;
+        } else {
+            message = "No job is running for module: " + moduleCode;
+        }
+        LOG.info(message);
+        parameters.put(RESULT_GUI_MESSAGE, message);
+    }
+}
@@ -0,0 +1,311 @@
+package org.meveo.enterpriseapp;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.context.control.RequestContextController;
+import javax.enterprise.inject.spi.CDI;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.transaction.*;
+
+import org.meveo.admin.exception.BusinessException;
+import org.meveo.commons.utils.ParamBean;
+import org.meveo.security.MeveoUser;
+import org.meveo.security.keycloak.CurrentUserProvider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs module jobs on threads of the managed thread factory of the application server.
+ * <p>
+ * Jobs wait for the locks of their modules, a build worker or meveo.ear, so they do not run on the managed
+ * executor: waiting jobs would hold the threads it shares with the template refresh and the asynchronous
+ * endpoints. Job threads are created on demand and end once idle.
+ * <p>
+ * Executor threads have no request context, no authenticated user and no transaction: a submitted job runs in
+ * an activated request context, as the user who submitted it. Its task is not run in a transaction, git, Maven
+ * and the EAR are not transactional, only its database work is, see {@link #inTransaction}. The job state is
+ * stored in transactions of its own, see {@link #inNewTransaction}, so clients polling the entities see every
+ * phase as it starts. Jobs of a module run one at a time, see {@link BuildScheduler}. A job submitted
+ * while an identical job (same type and modules) is still waiting to start is merged into it, as the waiting
+ * job will see the same state.
+ */
+public class ModuleJobs {
+    private static final Logger LOG = LoggerFactory.getLogger(ModuleJobs.class);
+
+    static final String ASYNC_PARAMETER = "async";
+    static final String ASYNC_PROPERTY = "enterpriseapp.jobs.async";
+    static final String TRANSACTION_TIMEOUT_PROPERTY = "enterpriseapp.jobs.transactionTimeout";
+    private static final String THREAD_FACTORY_JNDI_NAME = "java:comp/DefaultManagedThreadFactory";
+    private static final String TRANSACTION_MANAGER_JNDI_NAME = "java:/TransactionManager";
+    private static final String DEFAULT_TRANSACTION_TIMEOUT_SECONDS = "1800";
+
+    private static final Set<ModuleJob> JOBS = ConcurrentHashMap.newKeySet();
+    private static final Map<String, ModuleJob> PENDING_JOBS = new HashMap<>();
+
+    private static ExecutorService executor;
+
+    static {
+        PipelineMetrics.gauge("jobs.active", JOBS::size);
+        PipelineMetrics.gauge("jobs.pending", ModuleJobs::getPendingCount);
+    }
+
+    @FunctionalInterface
+    public interface Work<T> {
+        T run() throws BusinessException;
+    }
+
+    private ModuleJobs() {
+    }
+
+    /**
+     * @param parameters script parameters, the async parameter overrides the configuration
+     * @param config     meveo configuration
+     * @return true if jobs should be submitted instead of run on the calling thread
+     */
+    public static boolean isAsync(Map<String, Object> parameters, ParamBean config) {
+        Object async = parameters.get(ASYNC_PARAMETER);
+        return Boolean.parseBoolean(async != null ? async.toString() : config.getProperty(ASYNC_PROPERTY, "true"));
+    }
+
+    /**
+     * Queue a job and return immediately
+     *
+     * @param user user submitting the job, the job runs as this user
+     * @return the job that will run, the given one or the waiting job it was merged into
+     */
+    public static ModuleJob submit(ModuleJob job, MeveoUser user, ModuleJob.Task task) throws BusinessException {
+        ExecutorService executor = getExecutor();
+        String key = getKey(job);
+        synchronized (PENDING_JOBS) {
+            ModuleJob pendingJob = PENDING_JOBS.get(key);
+            if (pendingJob != null && !pendingJob.isCancelled()) {
+                PipelineMetrics.increment("jobs.merged");
+                LOG.info("Merged job: {} of modules: {} into the waiting one", job.getType(), job.getModuleCodes());
+                return pendingJob;
+            }
+            PENDING_JOBS.put(key, job);
+        }
+        JOBS.add(job);
+        long submitTime = System.nanoTime();
+        try {
+            job.queued();
+            executor.submit(() -> {
+                try {
+                    runSubmitted(job, task, user, submitTime);
+                } catch (Exception e) {
+                    LOG.error("Job: {} of modules: {} failed", job.getType(), job.getModuleCodes(), e);
+                } finally {
+                    unregister(job);
+                }
+            });
+        } catch (RuntimeException e) {
+            unregister(job);
+            throw new BusinessException("Failed to submit job: " + job.getType() + " of modules: "
+                    + job.getModuleCodes(), e);
+        }
+        LOG.info("Submitted job: {} of modules: {}", job.getType(), job.getModuleCodes());
+        return job;
+    }
+
+    /**
+     * Run a job on the calling thread, once no other job of its modules is running
+     *
+     * @return the result message of the job
+     */
+    public static String run(ModuleJob job, ModuleJob.Task task) throws BusinessException {
+        JOBS.add(job);
+        try {
+            return runExclusive(job, task, System.nanoTime());
+        } finally {
+            unregister(job);
+        }
+    }
+
+    /**
+     * @param moduleCode code of a module
+     * @return the waiting and running jobs of the module
+     */
+    public static List<ModuleJob> getJobs(String moduleCode) {
+        List<ModuleJob> jobs = new ArrayList<>();
+        for (ModuleJob job : JOBS) {
+            if (job.getModuleCodes().contains(moduleCode)) {
+                jobs.add(job);
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Request the cancellation of the jobs of a module. Waiting jobs will not start, running jobs stop at the
+     * start of their next phase.
+     *
+     * @param moduleCode code of a module
+     * @return true if a job was found
+     */
+    public static boolean cancel(String moduleCode) {
+        List<ModuleJob> jobs = getJobs(moduleCode);
+        for (ModuleJob job : jobs) {
+            if (job.cancel()) {
+                unregister(job);
+            }
+            LOG.info("Requested cancellation of job: {} of modules: {}", job.getType(), job.getModuleCodes());
+        }
+        return !jobs.isEmpty();
+    }
+
+    /**
+     * Run the database work of a job in a transaction, joining the transaction of the calling thread if it has
+     * one
+     *
+     * @param config meveo configuration, giving the timeout of a new transaction
+     * @return the result of the work
+     */
+    public static <T> T inTransaction(ParamBean config, Work<T> work) throws BusinessException {
+        TransactionManager transactionManager = getTransactionManager();
+        try {
+            if (transactionManager.getStatus() != Status.STATUS_NO_TRANSACTION) {
+                return work.run();
+            }
+        } catch (SystemException e) {
+            throw new BusinessException("Failed to get the transaction status", e);
+        }
+        int transactionTimeout = Integer.parseInt(config.getProperty(TRANSACTION_TIMEOUT_PROPERTY,
+                DEFAULT_TRANSACTION_TIMEOUT_SECONDS));
+        return runInTransaction(transactionManager, transactionTimeout, work);
+    }
+
+    /**
+     * Run work in a transaction of its own, the transaction of the calling thread is suspended meanwhile, so what
+     * the work stores is visible as soon as it returns
+     *
+     * @return the result of the work
+     */
+    public static <T> T inNewTransaction(Work<T> work) throws BusinessException {
+        TransactionManager transactionManager = getTransactionManager();
+        Transaction suspendedTransaction;
+        try {
+            suspendedTransaction = transactionManager.suspend();
+        } catch (SystemException e) {
+            throw new BusinessException("Failed to suspend the current transaction", e);
+        }
+        try {
+            return runInTransaction(transactionManager, 0, work);
+        } finally {
+            if (suspendedTransaction != null) {
+                try {
+                    transactionManager.resume(suspendedTransaction);
+                } catch (InvalidTransactionException | SystemException | IllegalStateException e) {
+                    LOG.error("Failed to resume the suspended transaction", e);
+                }
+            }
+        }
+    }
+
+    private static String runSubmitted(ModuleJob job, ModuleJob.Task task, MeveoUser user, long submitTime)
+            throws BusinessException {
+        RequestContextController requestContext = CDI.current().select(RequestContextController.class).get();
+        requestContext.activate();
+        try {
+            if (user != null) {
+                CDI.current().select(CurrentUserProvider.class).get().reestablishAuthentication(user);
+            }
+            return runExclusive(job, task, submitTime);
+        } finally {
+            requestContext.deactivate();
+        }
+    }
+
+    /*
+     * A timeout of 0 uses the default timeout of the transaction manager
+     */
+    private static <T> T runInTransaction(TransactionManager transactionManager, int transactionTimeout, Work<T> work)
+            throws BusinessException {
+        try {
+            transactionManager.setTransactionTimeout(transactionTimeout);
+            transactionManager.begin();
+        } catch (NotSupportedException | SystemException e) {
+            throw new BusinessException("Failed to start transaction", e);
+        } finally {
+            try {
+                transactionManager.setTransactionTimeout(0);
+            } catch (SystemException e) {
+                LOG.warn("Failed to reset the transaction timeout", e);
+            }
+        }
+        try {
+            T result = work.run();
+            transactionManager.commit();
+            return result;
+        } catch (RollbackException | HeuristicMixedException | HeuristicRollbackException | SystemException e) {
+            throw new BusinessException("Failed to commit transaction", e);
+        } finally {
+            try {
+                if (transactionManager.getStatus() != Status.STATUS_NO_TRANSACTION) {
+                    transactionManager.rollback();
+                }
+            } catch (SystemException | IllegalStateException e) {
+                LOG.warn("Failed to roll back transaction", e);
+            }
+        }
+    }
+
+    private static String runExclusive(ModuleJob job, ModuleJob.Task task, long submitTime)
+            throws BusinessException {
+        return BuildScheduler.withModuleLocks(job.getModuleCodes(), () -> {
+            removePending(job);
+            long queuedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submitTime);
+            PipelineMetrics.record("jobs.queue.wait", queuedMillis);
+            job.queuedFor(queuedMillis);
+            return job.run(task);
+        });
+    }
+
+    private static void unregister(ModuleJob job) {
+        JOBS.remove(job);
+        removePending(job);
+    }
+
+    private static void removePending(ModuleJob job) {
+        synchronized (PENDING_JOBS) {
+            PENDING_JOBS.remove(getKey(job), job);
+        }
+    }
+
+    private static long getPendingCount() {
+        synchronized (PENDING_JOBS) {
+            return PENDING_JOBS.size();
+        }
+    }
+
+    private static String getKey(ModuleJob job) {
+        return job.getType() + ":" + String.join(",", new TreeSet<>(job.getModuleCodes()));
+    }
+
+    private static TransactionManager getTransactionManager() throws BusinessException {
+        try {
+            return InitialContext.doLookup(TRANSACTION_MANAGER_JNDI_NAME);
+        } catch (NamingException e) {
+            throw new BusinessException("Transaction manager: " + TRANSACTION_MANAGER_JNDI_NAME + " not found", e);
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() throws BusinessException {
+        if (executor == null) {
+            try {
+                ThreadFactory threadFactory = InitialContext.doLookup(THREAD_FACTORY_JNDI_NAME);
+                executor = Executors.newCachedThreadPool(threadFactory);
+            } catch (NamingException e) {
+                throw new BusinessException("Managed thread factory: " + THREAD_FACTORY_JNDI_NAME
+                        + " not found, run jobs with " + ASYNC_PARAMETER + "=false", e);
+            }
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,118 @@
+package org.meveo.enterpriseapp;
+
+import java.io.File;
+import java.util.*;
+
+import org.meveo.admin.exception.BusinessException;
+import org.meveo.commons.utils.ParamBean;
+import org.meveo.commons.utils.ParamBeanFactory;
+import org.meveo.model.customEntities.CustomEntityInstance;
+import org.meveo.model.customEntities.JavaEnterpriseApp;
+import org.meveo.model.git.GitRepository;
+import org.meveo.model.persistence.CEIUtils;
+import org.meveo.security.MeveoUser;
+import org.meveo.service.git.GitHelper;
+import org.meveo.service.git.GitRepositoryService;
+import org.meveo.service.script.Script;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compare the build time of a generated module WAR project when Maven is forked for every build and when
+ * builds go to the warm Maven Daemon build server. The module is locked during the benchmark and each build
+ * takes a build slot, like the builds of module jobs.
+ */
+public class ModuleWarBuildBenchmark extends Script {
+    private static final Logger LOG = LoggerFactory.getLogger(ModuleWarBuildBenchmark.class);
+
+    private static final String ITERATIONS_PARAMETER = "iterations";
+    private static final String GOALS_PARAMETER = "goals";
+    private static final int DEFAULT_ITERATIONS = 3;
+    private static final String DEFAULT_GOALS = "clean package";
+    private static final String DIVIDER = StringUtils.repeat("-", 15);
+
+    private final ParamBeanFactory paramBeanFactory = getCDIBean(ParamBeanFactory.class);
+    private final ParamBean config = paramBeanFactory.getInstance();
+    private final GitRepositoryService gitRepositoryService = getCDIBean(GitRepositoryService.class);
+
+    @Override
+    public void execute(Map<String, Object> parameters) throws BusinessException {
+        label("ModuleWarBuildBenchmark.execute() - START");
+        CustomEntityInstance cei = (CustomEntityInstance) parameters.get(CONTEXT_ENTITY);
+
+        JavaEnterpriseApp javaEnterpriseApp = CEIUtils.ceiToPojo(cei, JavaEnterpriseApp.class);
+        String moduleCode = javaEnterpriseApp.getCode();
+
+        if (StringUtils.isEmpty(moduleCode)) {
+            throw new BusinessException("No module code was provided.");
+        }
+
+        GitRepository moduleWARRepo = gitRepositoryService.findByCode(moduleCode + "-war");
+        if (moduleWARRepo == null) {
+            throw new BusinessException("Module WAR repository for: " + moduleCode + " not found, generate it first.");
+        }
+        MeveoUser user = (MeveoUser) parameters.get(CONTEXT_CURRENT_USER);
+        File moduleWARDirectory = GitHelper.getRepositoryDir(user, moduleWARRepo);
+
+        int iterations = getIterations(parameters.get(ITERATIONS_PARAMETER));
+        String[] goals = StringUtils.split(StringUtils.defaultIfBlank(
+                (String) parameters.get(GOALS_PARAMETER), DEFAULT_GOALS));
+
+        // the module jobs must not generate or build the repository while it is benchmarked, and the builds
+        // share the build slots of the server with them
+        Map<WarBuilder.Mode, long[]> durations = BuildScheduler.withModuleLocks(
+                Collections.singletonList(moduleCode), () -> {
+            Map<WarBuilder.Mode, long[]> modeDurations = new EnumMap<>(WarBuilder.Mode.class);
+            for (WarBuilder.Mode mode : WarBuilder.Mode.values()) {
+                WarBuilder warBuilder = new WarBuilder(mode, config);
+                long[] buildDurations = new long[iterations];
+                for (int iteration = 0; iteration < iterations; iteration++) {
+                    buildDurations[iteration] = BuildScheduler.withBuildSlot(config, () -> {
+                        long start = System.nanoTime();
+                        warBuilder.build(moduleWARDirectory.getAbsolutePath(), goals);
+                        return (System.nanoTime() - start) / 1_000_000;
+                    });
+                    LOG.info("{} build {}/{}: {} ms", mode, iteration + 1, iterations, buildDurations[iteration]);
+                }
+                modeDurations.put(mode, buildDurations);
+            }
+            return modeDurations;
+        });
+
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<WarBuilder.Mode, long[]> entry : durations.entrySet()) {
+            LongSummaryStatistics statistics = Arrays.stream(entry.getValue()).summaryStatistics();
+            String line = String.format("%s: first %d ms, min %d ms, avg %.0f ms, max %d ms", entry.getKey(),
+                    entry.getValue()[0], statistics.getMin(), statistics.getAverage(), statistics.getMax());
+            LOG.info(line);
+            summary.append(line).append(System.lineSeparator());
+        }
+        parameters.put(RESULT_GUI_MESSAGE, summary.toString());
+
+        label("ModuleWarBuildBenchmark.execute() - DONE");
+    }
+
+    private int getIterations(Object iterationsParameter) throws BusinessException {
+        if (iterationsParameter == null || StringUtils.isBlank(String.valueOf(iterationsParameter))) {
+            return DEFAULT_ITERATIONS;
+        }
+        int iterations;
+        try {
+            iterations = Integer.parseInt(String.valueOf(iterationsParameter).trim());
+        } catch (NumberFormatException e) {
+            throw new BusinessException("Invalid " + ITERATIONS_PARAMETER + ": " + iterationsParameter
+                    + ", expected a positive number");
+        }
+        if (iterations <= 0) {
+            throw new BusinessException("Invalid " + ITERATIONS_PARAMETER + ": " + iterations
+                    + ", expected a positive number");
+        }
+        return iterations;
+    }
+
+    private void label(String labelString, Object... params) {
+        LOG.info(DIVIDER + " " + labelString + " " + DIVIDER, params);
+    }
+}
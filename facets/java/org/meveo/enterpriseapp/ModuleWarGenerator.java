@@ -1,21 +1,28 @@
 package org.meveo.enterpriseapp;
 
-import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static org.apache.commons.lang3.StringUtils.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.meveo.admin.exception.BusinessException;
+import org.meveo.api.persistence.CrossStorageApi;
 import org.meveo.commons.utils.ParamBean;
 import org.meveo.commons.utils.ParamBeanFactory;
 import org.meveo.model.customEntities.CustomEntityInstance;
@@ -26,7 +33,6 @@ import org.meveo.model.module.MeveoModule;
 import org.meveo.model.module.MeveoModuleItem;
 import org.meveo.model.persistence.CEIUtils;
 import org.meveo.model.scripts.Accessor;
-import org.meveo.model.scripts.ScriptInstance;
 import org.meveo.model.technicalservice.endpoint.Endpoint;
 import org.meveo.model.technicalservice.endpoint.EndpointPathParameter;
 import org.meveo.model.technicalservice.endpoint.TSParameterMapping;
@@ -36,10 +42,11 @@ import org.meveo.service.git.GitClient;
 import org.meveo.service.git.GitHelper;
 import org.meveo.service.git.GitRepositoryService;
 import org.meveo.service.script.Script;
-import org.meveo.service.script.ScriptInstanceService;
+import org.meveo.service.storage.RepositoryService;
 import org.meveo.service.technicalservice.endpoint.EndpointService;
 import org.meveo.util.Version;
 
+import com.github.javaparser.StaticJavaParser;
 import com.github.javaparser.ast.CompilationUnit;
 import com.github.javaparser.ast.ImportDeclaration;
 import com.github.javaparser.ast.Modifier;
@@ -49,10 +56,6 @@ import com.github.javaparser.ast.expr.*;
 import com.github.javaparser.ast.stmt.*;
 import com.github.javaparser.ast.type.ClassOrInterfaceType;
 import org.apache.commons.io.FileUtils;
-import org.apache.maven.shared.invoker.DefaultInvocationRequest;
-import org.apache.maven.shared.invoker.DefaultInvoker;
-import org.apache.maven.shared.invoker.InvocationRequest;
-import org.apache.maven.shared.invoker.MavenInvocationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,18 +63,48 @@ public class ModuleWarGenerator extends Script {
     private static final Logger LOG = LoggerFactory.getLogger(ModuleWarGenerator.class);
 
     private static final String PATH_SEPARATORS = "/\\";
-    private static final String MODULE_WAR_TEMPLATE_CODE = "module-war-template";
-    private static final String MODULE_WAR_TEMPLATE_REPO = "https://github.com/meveo-org/module-war-template.git";
     private static final String CUSTOM_TEMPLATE = CustomEntityTemplate.class.getName();
     private static final String CUSTOM_ENDPOINT_TEMPLATE = Endpoint.class.getName();
-    private static final String CDI_BEAN_FILE = "beans.xml";
-    private static final String CUSTOM_ENDPOINT_RESOURCE_FILE = "CustomEndpointResource.java";
     private static final String POM_XML_FILE = "pom.xml";
-    private static final String DEPLOYMENT_SCRIPT_FILE = "moduledeployment.sh";
     private static final String SET_REQUEST_RESPONSE_METHOD = "setRequestResponse";
+    private static final String REQUEST_PARAMETER = "request";
+    private static final String RESPONSE_PARAMETER = "response";
+    private static final String HTTP_REQUEST_FIELD = "httpServletRequest";
+    private static final String HTTP_RESPONSE_FIELD = "httpServletResponse";
+    private static final String SCRIPT_PROVIDER_SUFFIX = "Provider";
+    private static final String EXECUTOR_FIELD = "executorService";
+    private static final String REQUEST_CONTEXT_PROVIDER_FIELD = "requestContextProvider";
+    private static final String ASYNC_RESPONSE_PARAMETER = "asyncResponse";
+    private static final String RESPONSE_CACHE_FIELD = "RESPONSE_CACHE";
+    private static final String CACHE_KEY_VARIABLE = "cacheKey";
+    private static final String REST_REQUEST_PARAMETER = "restRequest";
+    private static final String SECURITY_CONTEXT_PARAMETER = "securityContext";
+    private static final String PROVIDERS_PARAMETER = "providers";
+    private static final String METRICS_FIELD = "METRICS";
+    private static final String BATCH_TRANSACTION_FIELD = "batchTransaction";
+    private static final String BULK_BATCH_SIZE_FIELD = "BULK_BATCH_SIZE";
+    private static final Pattern ITERABLE_TYPE_PATTERN = Pattern.compile(
+            "(java\\.util\\.)?(Iterable|Collection|List|Set|SortedSet|NavigableSet|Queue|Deque|ArrayList|LinkedList"
+                    + "|HashSet|LinkedHashSet|TreeSet|ArrayDeque)(<.*>)?");
     private static final String CUSTOM_ENDPOINT_RESOURCE = "CustomEndpointResource";
     private static final String CUSTOM_ENDPOINT_BASE_RESOURCE_PACKAGE = "org.meveo.base.CustomEndpointResource";
     private static final String MODULE_VERSION = "1.0.0";
+    private static final String SOURCE_MANIFEST_EXTENSION = ".manifest";
+    private static final String BUILD_FINGERPRINT_EXTENSION = ".build";
+    private static final String SYNC_MODE_PROPERTY = "enterpriseapp.sync.mode";
+    private static final String SYNC_MODE_INCREMENTAL = "incremental";
+    private static final String GENERATION_PARALLELISM_PROPERTY = "enterpriseapp.generation.parallelism";
+    private static final String GIT_PULL_TTL_PROPERTY = "enterpriseapp.git.pullTtl";
+    private static final String DEFAULT_GIT_PULL_TTL_SECONDS = "300";
+    private static final Map<String, Long> LAST_PULLS = new ConcurrentHashMap<>();
+    private static final String GENERATE_JOB_TYPE = "generate";
+    /*
+     * Part of the inputs hash of the generated files, to change with the generated code so they are regenerated
+     */
+    private static final String GENERATOR_VERSION = "8";
+    private static final String DEPLOYMENT_STRUCTURE_PATH = "src/main/webapp/WEB-INF/jboss-deployment-structure.xml";
+    private static final String STANDALONE_DEPENDENCIES_PROPERTY = "enterpriseapp.standalone.dependencies";
+    private static final String MEVEO_EAR_DEPENDENCY = "deployment.meveo.ear";
     private static final String DIVIDER = repeat("-", 15);
 
     private final ParamBeanFactory paramBeanFactory = getCDIBean(ParamBeanFactory.class);
@@ -79,8 +112,9 @@ public class ModuleWarGenerator extends Script {
     private final GitClient gitClient = getCDIBean(GitClient.class);
     private final GitRepositoryService gitRepositoryService = getCDIBean(GitRepositoryService.class);
     private final MeveoModuleService meveoModuleService = getCDIBean(MeveoModuleService.class);
-    private final ScriptInstanceService scriptInstanceService = getCDIBean(ScriptInstanceService.class);
     private final EndpointService endpointService = getCDIBean(EndpointService.class);
+    private final CrossStorageApi crossStorageApi = getCDIBean(CrossStorageApi.class);
+    private final RepositoryService repositoryService = getCDIBean(RepositoryService.class);
 
     @Override
     public void execute(Map<String, Object> parameters) throws BusinessException {
@@ -96,61 +130,63 @@ public class ModuleWarGenerator extends Script {
             throw new BusinessException("No module code was provided.");
         }
 
+        MeveoUser user = (MeveoUser) parameters.get(CONTEXT_CURRENT_USER);
+        ModuleJob job = new ModuleJob(GENERATE_JOB_TYPE, Collections.singletonList(javaEnterpriseApp),
+                crossStorageApi, repositoryService.findDefaultRepository());
+        if (ModuleJobs.isAsync(parameters, config)) {
+            ModuleJob submittedJob = ModuleJobs.submit(job, user, moduleJob -> generate(moduleCode, user, moduleJob));
+            parameters.put(RESULT_GUI_MESSAGE, (submittedJob == job ? "Submitted" : "Merged with waiting")
+                    + " WAR generation of module: " + moduleCode);
+        } else {
+            String result = ModuleJobs.run(job, moduleJob -> generate(moduleCode, user, moduleJob));
+            parameters.put(RESULT_GUI_MESSAGE, result);
+        }
+
+        label("ModuleWarGenerator.execute() - DONE");
+    }
+
+    private String generate(String moduleCode, MeveoUser user, ModuleJob job) throws BusinessException {
         LOG.info("Generating WAR for module: {}", moduleCode);
 
-        MeveoModule module = meveoModuleService.findByCode(moduleCode);
-        MeveoUser user = (MeveoUser) parameters.get(CONTEXT_CURRENT_USER);
+        Set<MeveoModuleItem> moduleItems = ModuleJobs.inTransaction(config, () -> {
+            MeveoModule module = meveoModuleService.findByCode(moduleCode);
+            return module != null ? new HashSet<>(module.getModuleItems()) : null;
+        });
 
-        if (module != null) {
-            LOG.info("Module: {}, found", module.getCode());
+        if (moduleItems != null) {
+            LOG.info("Module: {}, found", moduleCode);
 
-            Set<MeveoModuleItem> moduleItems = module.getModuleItems();
             List<String> entityCodes = moduleItems.stream().filter(item -> CUSTOM_TEMPLATE.equals(item.getItemClass()))
                                                   .map(MeveoModuleItem::getItemCode).collect(Collectors.toList());
             LOG.info("Entity codes: {}", entityCodes);
 
-            GitRepository templateRepository = getGitRepository(MODULE_WAR_TEMPLATE_CODE, MODULE_WAR_TEMPLATE_REPO);
-            File templateDirectory = GitHelper.getRepositoryDir(user, templateRepository);
-            Path templatePath = templateDirectory.toPath();
-            LOG.info("Module template path: {}", templatePath);
+            job.phase("template");
+            TemplateCache.Snapshot templateSnapshot = new TemplateCache(config).getSnapshot();
+            LOG.info("Module template snapshot: {}, commit: {}", templateSnapshot.getPath(),
+                    templateSnapshot.getCommitId());
 
-            GitRepository moduleRepo = gitRepositoryService.findByCode(moduleCode);
+            job.phase("copy");
+            GitRepository moduleRepo = ModuleJobs.inTransaction(config,
+                    () -> gitRepositoryService.findByCode(moduleCode));
             File moduleDirectory = GitHelper.getRepositoryDir(user, moduleRepo);
 
             String moduleWARCode = moduleCode + "-war";
             GitRepository moduleWARRepo = getGitRepository(moduleWARCode, null);
             File moduleWARDirectory = GitHelper.getRepositoryDir(user, moduleWARRepo);
-            Path moduleWARPath = moduleWARDirectory.toPath();
-            File moduleWARSource = new File(moduleWARDirectory.getAbsolutePath() + "/src");
-            if (moduleWARSource.exists() && moduleWARSource.isDirectory()) {
-                try {
-                    FileUtils.deleteDirectory(moduleWARSource);
-                } catch (IOException e) {
-                    throw new BusinessException("Failed to delete module war source directory", e);
-                }
-            }
+            SourceManifest sourceManifest = loadSourceManifest(moduleWARDirectory);
 
-            List<File> filesToCommit = new ArrayList<>();
             Path moduleSourceDirectory = Paths.get(moduleDirectory.getAbsolutePath() + "/facets/java");
             Path moduleWARSourceDirectory = Paths.get(moduleWARDirectory.getAbsolutePath() + "/src/main/java");
             try (Stream<Path> sourceStream = Files.walk(moduleSourceDirectory)) {
-                List<Path> sources = sourceStream.collect(Collectors.toList());
-                List<Path> destinations = sources.stream()
-                                                 .map(moduleSourceDirectory::relativize)
-                                                 .map(moduleWARSourceDirectory::resolve)
-                                                 .collect(Collectors.toList());
-                for (int index = 0; index < sources.size(); index++) {
-                    Path sourcePath = sources.get(index);
-                    Path destinationPath = destinations.get(index);
-                    File sourceFile = sourcePath.toFile();
-                    File destinationFile = destinationPath.toFile();
-                    if (sourceFile.isDirectory()) {
-                        Files.createDirectories(destinationFile.toPath());
-                        continue;
+                List<Path> sources = sourceStream.filter(Files::isRegularFile).collect(Collectors.toList());
+                job.count("copy.sources", sources.size());
+                for (Path sourcePath : sources) {
+                    Path destinationPath = moduleWARSourceDirectory.resolve(moduleSourceDirectory.relativize(sourcePath));
+                    if (sourceManifest.copy(sourcePath, destinationPath)) {
+                        LOG.info("Successfully copied: {} to: {}", sourcePath, destinationPath);
+                        job.count("copy.files", 1);
+                        job.count("copy.bytes", Files.size(destinationPath));
                     }
-                    Files.copy(sourcePath, destinationPath, REPLACE_EXISTING, COPY_ATTRIBUTES);
-                    LOG.info("Successfully copied: {} to: {}", sourcePath, destinationPath);
-                    filesToCommit.add(destinationFile);
                 }
             } catch (IOException e) {
                 throw new BusinessException("Failed to copy files from module repo to module war repo.", e);
@@ -163,101 +199,325 @@ public class ModuleWarGenerator extends Script {
                     + "/rest/" + normalizedCode + "RestConfig" + ".java";
             LOG.info("Rest configuration file: {}", restConfigurationPath);
             try {
-                File restConfigfile = new File(moduleWARDirectory, restConfigurationPath);
-                String restConfigurationFileContent = generateRESTConfigurationClass(normalizedCode);
-                FileUtils.write(restConfigfile, restConfigurationFileContent, StandardCharsets.UTF_8);
-                LOG.info("Successfully created rest configuration file: {}", restConfigfile.getPath());
-                filesToCommit.add(restConfigfile);
+                Path restConfigurationFile = sourceManifest.resolve(restConfigurationPath);
+                String inputHash = hashInputs(Collections.singletonMap("module", normalizedCode));
+                if (sourceManifest.isReusable(restConfigurationFile, inputHash)) {
+                    sourceManifest.reuse(restConfigurationFile, inputHash);
+                } else if (sourceManifest.write(restConfigurationFile,
+                        generateRESTConfigurationClass(normalizedCode), inputHash)) {
+                    LOG.info("Successfully created rest configuration file: {}", restConfigurationFile);
+                }
             } catch (IOException e) {
                 throw new BusinessException("Failed creating file." + e.getMessage());
             }
 
+            String installMode = config.getProperty(ModuleWarInstaller.INSTALL_MODE_PROPERTY,
+                    ModuleWarInstaller.INSTALL_MODE_REPACK);
+            if (ModuleWarInstaller.INSTALL_MODE_STANDALONE.equalsIgnoreCase(installMode)) {
+                label("Deployment structure generation");
+                try {
+                    File deploymentStructureFile = new File(moduleWARDirectory, DEPLOYMENT_STRUCTURE_PATH);
+                    if (sourceManifest.write(deploymentStructureFile.toPath(), generateDeploymentStructure())) {
+                        LOG.info("Successfully created: {}", deploymentStructureFile.getPath());
+                    }
+                } catch (IOException e) {
+                    throw new BusinessException("Failed creating file." + e.getMessage());
+                }
+            }
+
             List<String> endpointCodes = moduleItems
                     .stream()
                     .filter(item -> CUSTOM_ENDPOINT_TEMPLATE.equals(item.getItemClass()))
                     .map(MeveoModuleItem::getItemCode)
                     .collect(Collectors.toList());
 
-            String endpointDTOClass = null;
-
-            for (String endpointCode : endpointCodes) {
-                endpointDTOClass = null;
-                Endpoint endpoint = endpointService.findByCode(endpointCode);
-                if (!endpoint.getParametersMappingNullSafe().isEmpty()) {
-                    String methodLabel = endpoint.getMethod().getLabel();
-                    if ("POST".equalsIgnoreCase(methodLabel) || "PUT".equalsIgnoreCase(methodLabel)) {
-                        label("Endpoint DTO class generation");
-                        endpointDTOClass = toPascalCase(endpoint.getCode()) + "DTO";
-                        String dtoFilePath = "src/main/java/org/meveo/" + toCamelCase(normalizedCode)
-                                + "/dto/" + endpointDTOClass + ".java";
-                        try {
-                            File dtoFile = new File(moduleWARDirectory, dtoFilePath);
-                            String dtoContent = generateEndpointDTO(normalizedCode, endpoint, endpointDTOClass);
-                            FileUtils.write(dtoFile, dtoContent, StandardCharsets.UTF_8);
-                            LOG.info("Successfully created endpoint DTO: {}", dtoFile.getPath());
-                            filesToCommit.add(dtoFile);
-                        } catch (IOException e) {
-                            throw new BusinessException("Failed creating file." + e.getMessage());
+            job.phase("metadata");
+            label("Endpoint metadata loading");
+            List<EndpointDefinition> endpointDefinitions = ModuleJobs.inTransaction(config,
+                    () -> GenerationMetadata.load(endpointService, endpointCodes))
+                    .getEndpointDefinitions();
+
+            job.phase("codegen");
+            GenerationOptions generationOptions = new GenerationOptions(config, moduleCode);
+            List<List<GeneratedFile>> endpointFiles = new ArrayList<>(generateEndpointFiles(normalizedCode,
+                    endpointDefinitions, generationOptions, sourceManifest));
+            endpointFiles.add(generateSupportFiles(normalizedCode, endpointDefinitions, generationOptions));
+            job.count("codegen.endpoints", endpointDefinitions.size());
+
+            for (List<GeneratedFile> generatedFiles : endpointFiles) {
+                for (GeneratedFile generatedFile : generatedFiles) {
+                    try {
+                        File outputFile = new File(moduleWARDirectory, generatedFile.getPath());
+                        if (generatedFile.isReused()) {
+                            sourceManifest.reuse(outputFile.toPath(), generatedFile.getInputHash());
+                            job.count("codegen.reused", 1);
+                        } else if (sourceManifest.write(outputFile.toPath(), generatedFile.getContent(),
+                                generatedFile.getInputHash())) {
+                            LOG.info("Successfully created: {}", outputFile.getPath());
+                            job.count("codegen.files", 1);
+                            job.count("codegen.bytes", Files.size(outputFile.toPath()));
                         }
-
+                    } catch (IOException e) {
+                        throw new BusinessException("Failed creating file." + e.getMessage());
                     }
                 }
+            }
 
-                label("Endpoint Class Generation");
-                String endpointClassPath = "src/main/java/org/meveo/" + toCamelCase(normalizedCode)
-                        + "/resource/" + toPascalCase(endpoint.getCode()) + ".java";
-                LOG.info("Generating endpoint class: {}", endpointClassPath);
-
-                try {
-                    File endpointFile = new File(moduleWARDirectory, endpointClassPath);
-                    String endpointContent = generateEndpoint(normalizedCode, endpoint, endpointDTOClass);
-                    FileUtils.write(endpointFile, endpointContent, StandardCharsets.UTF_8);
-                    LOG.info("Successfully created endpoint class: {}", endpointFile.getPath());
-                    filesToCommit.add(endpointFile);
-                } catch (IOException e) {
-                    throw new BusinessException("Failed creating file." + e.getMessage());
-                }
-
-                String tagToKeep = "repositories";
-
-                String pomFilePath = moduleDirectory.getAbsolutePath() + "/facets/maven/" + POM_XML_FILE;
-                String repositoriesTagContent = copyXmlTagContent(pomFilePath, tagToKeep);
-
-                List<File> templateFiles = templateFileCopy(moduleCode, templatePath,
-                        moduleWARPath, repositoriesTagContent);
-                LOG.info("Successfully copied the following files from the template: {}",
-                        templateFiles.stream().map(File::getPath).collect(Collectors.toList()));
-                filesToCommit.addAll(templateFiles);
+            job.phase("render");
+            label("Template files rendering");
+            String tagToKeep = "repositories";
+            String pomFilePath = moduleDirectory.getAbsolutePath() + "/facets/maven/" + POM_XML_FILE;
+            String repositoriesTagContent = copyXmlTagContent(pomFilePath, tagToKeep);
+
+            boolean benchmarked = endpointDefinitions.stream()
+                    .anyMatch(definition -> generationOptions.isBenchmark(definition.getEndpoint().getCode()));
+            List<File> templateFiles = renderTemplateFiles(moduleCode, templateSnapshot, moduleWARDirectory,
+                    repositoriesTagContent, benchmarked, sourceManifest);
+            LOG.info("Successfully copied the following files from the template: {}",
+                    templateFiles.stream().map(File::getPath).collect(Collectors.toList()));
+            job.count("render.files", templateFiles.size());
+
+            job.phase("commit");
+            List<File> filesToCommit = new ArrayList<>(sourceManifest.getChangedFiles());
+            try {
+                filesToCommit.addAll(sourceManifest.removeStale());
+            } catch (IOException e) {
+                throw new BusinessException("Failed to remove stale files from module war repo.", e);
             }
+            LOG.info("Module WAR repository changes: {} written, {} removed",
+                    sourceManifest.getChangedFiles().size(), sourceManifest.getDeletedFiles().size());
 
+            job.count("commit.files", filesToCommit.size());
             if (!filesToCommit.isEmpty()) {
-                gitClient.commitFiles(moduleWARRepo, filesToCommit, "DTO & Endpoint generation.");
+                // the commit events are observed by services using the database
+                ModuleJobs.inTransaction(config, () -> {
+                    gitClient.commitFiles(moduleWARRepo, filesToCommit, "DTO & Endpoint generation.");
+                    return null;
+                });
             }
 
-            generateWAR(moduleWARDirectory.getAbsolutePath());
+            try {
+                sourceManifest.save();
+            } catch (IOException e) {
+                throw new BusinessException("Failed to save module war source manifest.", e);
+            }
 
+            job.phase("build");
+            BuildFingerprint.BuildPlan buildPlan = generateWAR(moduleCode, moduleWARDirectory, sourceManifest);
+            job.count("war.bytes", new File(moduleWARDirectory, "target/" + moduleCode + ".war").length());
+
+            return "Generated WAR of module: " + moduleCode + ", " + sourceManifest.getChangedFiles().size()
+                    + " files written, " + sourceManifest.getDeletedFiles().size() + " removed, build: " + buildPlan;
         } else {
             LOG.warn("Module with code: {} does not exist.", moduleCode);
+            return "Module: " + moduleCode + " does not exist";
         }
+    }
 
-        label("ModuleWarGenerator.execute() - DONE");
+    /*
+     * Generate the DTO and resource classes of every endpoint on a bounded pool, the result keeps the order
+     * of the endpoint definitions so the output does not depend on scheduling. Files generated by the previous
+     * run from the same inputs are reused instead.
+     */
+    private List<List<GeneratedFile>> generateEndpointFiles(String normalizedCode,
+            List<EndpointDefinition> endpointDefinitions, GenerationOptions generationOptions,
+            SourceManifest sourceManifest) throws BusinessException {
+        int parallelism = Integer.parseInt(config.getProperty(GENERATION_PARALLELISM_PROPERTY,
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        LOG.info("Generating {} endpoints with parallelism: {}", endpointDefinitions.size(), parallelism);
+        ForkJoinPool generationPool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            return generationPool.submit(() -> endpointDefinitions
+                    .parallelStream()
+                    .map(definition -> generateEndpointClasses(normalizedCode, definition, generationOptions,
+                            sourceManifest))
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusinessException("Endpoint generation was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new BusinessException("Failed generating endpoints." + e.getCause().getMessage(), e.getCause());
+        } finally {
+            generationPool.shutdown();
+        }
+    }
+
+    /*
+     * Support classes used by the generated endpoints, only generated when an endpoint needs them
+     */
+    private List<GeneratedFile> generateSupportFiles(String normalizedCode,
+            List<EndpointDefinition> endpointDefinitions, GenerationOptions generationOptions) {
+        List<GeneratedFile> generatedFiles = new ArrayList<>();
+        EndpointSupportGenerator supportGenerator = new EndpointSupportGenerator(toCamelCase(normalizedCode));
+        boolean responseCache = endpointDefinitions.stream()
+                .anyMatch(definition -> isResponseCached(definition, generationOptions));
+        boolean metrics = endpointDefinitions.stream().map(EndpointDefinition::getEndpoint)
+                .anyMatch(endpoint -> generationOptions.isMetricsEnabled(endpoint.getCode()));
+        boolean streaming = endpointDefinitions.stream()
+                .anyMatch(definition -> isStreamed(definition, generationOptions));
+        boolean bulk = endpointDefinitions.stream().map(EndpointDefinition::getEndpoint)
+                .anyMatch(endpoint -> hasDTO(endpoint) && generationOptions.isBulk(endpoint.getCode()));
+        if (responseCache) {
+            label("Response cache generation");
+            generatedFiles.add(new GeneratedFile(
+                    supportGenerator.getPath(EndpointSupportGenerator.RESPONSE_CACHE_CLASS),
+                    supportGenerator.generateResponseCache()));
+            generatedFiles.add(new GeneratedFile(
+                    supportGenerator.getPath(EndpointSupportGenerator.RESPONSE_CACHE_RESOURCE_CLASS),
+                    supportGenerator.generateResponseCacheResource()));
+        }
+        if (metrics) {
+            label("Endpoint metrics generation");
+            generatedFiles.add(new GeneratedFile(
+                    supportGenerator.getPath(EndpointSupportGenerator.ENDPOINT_METRICS_CLASS),
+                    supportGenerator.generateEndpointMetrics()));
+            generatedFiles.add(new GeneratedFile(
+                    supportGenerator.getPath(EndpointSupportGenerator.ENDPOINT_METRICS_RESOURCE_CLASS),
+                    supportGenerator.generateEndpointMetricsResource()));
+        }
+        if (streaming) {
+            label("JSON streams generation");
+            generatedFiles.add(new GeneratedFile(
+                    supportGenerator.getPath(EndpointSupportGenerator.JSON_STREAMS_CLASS),
+                    supportGenerator.generateJsonStreams()));
+        }
+        if (bulk) {
+            label("Bulk operations generation");
+            generatedFiles.add(new GeneratedFile(
+                    supportGenerator.getPath(EndpointSupportGenerator.BULK_OPERATIONS_CLASS),
+                    supportGenerator.generateBulkOperations()));
+            generatedFiles.add(new GeneratedFile(
+                    supportGenerator.getPath(EndpointSupportGenerator.BATCH_TRANSACTION_CLASS),
+                    supportGenerator.generateBatchTransaction()));
+        }
+        return generatedFiles;
+    }
+
+    /*
+     * POST and PUT endpoints with parameters take a generated DTO
+     */
+    private boolean hasDTO(Endpoint endpoint) {
+        String methodLabel = endpoint.getMethod().getLabel();
+        return !endpoint.getParametersMappingNullSafe().isEmpty()
+                && ("POST".equalsIgnoreCase(methodLabel) || "PUT".equalsIgnoreCase(methodLabel));
+    }
+
+    private List<GeneratedFile> generateEndpointClasses(String normalizedCode, EndpointDefinition definition,
+            GenerationOptions generationOptions, SourceManifest sourceManifest) {
+        List<GeneratedFile> generatedFiles = new ArrayList<>();
+        Endpoint endpoint = definition.getEndpoint();
+        String inputHash = hashInputs(getInputs(normalizedCode, definition, generationOptions));
+        String endpointDTOClass = null;
+        if (hasDTO(endpoint)) {
+            label("Endpoint DTO class generation");
+            endpointDTOClass = toPascalCase(endpoint.getCode()) + "DTO";
+            String dtoFilePath = "src/main/java/org/meveo/" + toCamelCase(normalizedCode)
+                    + "/dto/" + endpointDTOClass + ".java";
+            String dtoClass = endpointDTOClass;
+            generatedFiles.add(generateFile(sourceManifest, dtoFilePath, inputHash,
+                    () -> generateEndpointDTO(normalizedCode, definition, dtoClass)));
+        }
+
+        label("Endpoint Class Generation");
+        String endpointClassPath = "src/main/java/org/meveo/" + toCamelCase(normalizedCode)
+                + "/resource/" + toPascalCase(endpoint.getCode()) + ".java";
+        LOG.info("Generating endpoint class: {}", endpointClassPath);
+        String dtoClass = endpointDTOClass;
+        generatedFiles.add(generateFile(sourceManifest, endpointClassPath, inputHash,
+                () -> generateEndpoint(normalizedCode, definition, dtoClass, generationOptions)));
+
+        if (generationOptions.isBenchmark(endpoint.getCode())) {
+            BenchmarkGenerator benchmarkGenerator = new BenchmarkGenerator(normalizedCode);
+            generatedFiles.add(generateFile(sourceManifest, benchmarkGenerator.getPath(endpoint.getCode()),
+                    inputHash, () -> benchmarkGenerator.generateBenchmark(definition, dtoClass)));
+        }
+        return generatedFiles;
+    }
+
+    /*
+     * Generate a file unless the previous run generated it from the same inputs
+     */
+    private GeneratedFile generateFile(SourceManifest sourceManifest, String path, String inputHash,
+            Supplier<String> generator) {
+        try {
+            if (sourceManifest.isReusable(sourceManifest.resolve(path), inputHash)) {
+                LOG.info("Inputs unchanged, reusing: {}", path);
+                return new GeneratedFile(path, null, inputHash);
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to check: {}, generating it again", path, e);
+        }
+        return new GeneratedFile(path, generator.get(), inputHash);
+    }
+
+    /*
+     * Everything the generated files of an endpoint depend on: the endpoint, the accessors of its script and
+     * its generation options
+     */
+    private Map<String, Object> getInputs(String normalizedCode, EndpointDefinition definition,
+            GenerationOptions generationOptions) {
+        Endpoint endpoint = definition.getEndpoint();
+        Map<String, Object> inputs = new LinkedHashMap<>();
+        inputs.put("module", normalizedCode);
+        inputs.put("code", endpoint.getCode());
+        inputs.put("method", endpoint.getMethod().getLabel());
+        inputs.put("basePath", endpoint.getBasePath());
+        inputs.put("contentType", endpoint.getContentType());
+        inputs.put("service", endpoint.getService().getCode());
+        inputs.put("pathParameters", endpoint.getPathParametersNullSafe().stream()
+                .map(pathParameter -> pathParameter.getEndpointParameter().getParameter())
+                .collect(Collectors.toList()));
+        // a multivalued parameter is generated as a list
+        inputs.put("parameters", endpoint.getParametersMappingNullSafe().stream()
+                .map(parameterMapping -> parameterMapping.getParameterName()
+                        + (parameterMapping.isMultivalued() ? "[]" : ""))
+                .collect(Collectors.toList()));
+        inputs.put("setters", getSignatures(definition.getScriptInstance().getSetters()));
+        inputs.put("getters", getSignatures(definition.getScriptInstance().getGetters()));
+        inputs.put("options", generationOptions.getValues(endpoint.getCode()));
+        return inputs;
+    }
+
+    private List<String> getSignatures(List<Accessor> accessors) {
+        if (accessors == null) {
+            return Collections.emptyList();
+        }
+        return accessors.stream()
+                .map(accessor -> accessor.getType() + " " + accessor.getName())
+                .collect(Collectors.toList());
+    }
+
+    private String hashInputs(Map<String, ?> inputs) {
+        String hashedInputs = GENERATOR_VERSION + "\n" + inputs;
+        return SourceManifest.hash(hashedInputs.getBytes(StandardCharsets.UTF_8));
     }
 
     private GitRepository getGitRepository(String code, String origin) throws BusinessException {
-        GitRepository gitRepository = gitRepositoryService.findByCode(code);
+        GitRepository gitRepository = ModuleJobs.inTransaction(config, () -> gitRepositoryService.findByCode(code));
         if (gitRepository == null) {
             LOG.info("Create module template repository: {}", code);
-            gitRepository = new GitRepository();
-            gitRepository.setCode(code);
-            gitRepository.setDescription(code + " repository");
-            gitRepository.setRemoteOrigin(origin);
-            gitRepository.setDefaultRemoteUsername("");
-            gitRepository.setDefaultRemotePassword("");
-            gitRepositoryService.create(gitRepository);
+            GitRepository newRepository = new GitRepository();
+            newRepository.setCode(code);
+            newRepository.setDescription(code + " repository");
+            newRepository.setRemoteOrigin(origin);
+            newRepository.setDefaultRemoteUsername("");
+            newRepository.setDefaultRemotePassword("");
+            ModuleJobs.inTransaction(config, () -> {
+                gitRepositoryService.create(newRepository);
+                return null;
+            });
+            gitRepository = newRepository;
         } else {
             String remoteOrigin = gitRepository.getRemoteOrigin();
-            if (isNotEmpty(remoteOrigin)) {
+            long pullTtlMillis = Long.parseLong(config.getProperty(GIT_PULL_TTL_PROPERTY,
+                    DEFAULT_GIT_PULL_TTL_SECONDS)) * 1000;
+            Long lastPull = LAST_PULLS.get(code);
+            if (isNotEmpty(remoteOrigin) && lastPull != null
+                    && System.currentTimeMillis() - lastPull <= pullTtlMillis) {
+                LOG.info("Repository: {} was updated less than {}ms ago, skipping pull", code, pullTtlMillis);
+            } else if (isNotEmpty(remoteOrigin)) {
                 gitClient.pull(gitRepository, "", "");
+                LAST_PULLS.put(code, System.currentTimeMillis());
                 LOG.info("Successfully updated repository: {}", code);
             } else {
                 LOG.info("Git repository: {}, does not have a remote origin.", gitRepository.getCode());
@@ -267,40 +527,131 @@ public class ModuleWarGenerator extends Script {
     }
 
     /*
-     * Generate module war file in local repo folder
+     * Load the content-hash manifest kept next to the module war repository. In full sync mode the source
+     * directory is wiped and every file is written again.
      */
-    private void generateWAR(String modulePath) throws BusinessException {
-        String mvnHome = null;
+    private SourceManifest loadSourceManifest(File moduleWARDirectory) throws BusinessException {
+        Path moduleWARPath = moduleWARDirectory.toPath();
+        Path manifestPath = moduleWARPath.resolveSibling(moduleWARDirectory.getName() + SOURCE_MANIFEST_EXTENSION);
+        String syncMode = config.getProperty(SYNC_MODE_PROPERTY, SYNC_MODE_INCREMENTAL);
+        LOG.info("Module WAR sync mode: {}", syncMode);
+        try {
+            File moduleWARSource = new File(moduleWARDirectory, "src");
+            if (SYNC_MODE_INCREMENTAL.equalsIgnoreCase(syncMode)) {
+                return Files.isRegularFile(manifestPath)
+                        ? SourceManifest.load(moduleWARPath, manifestPath)
+                        : SourceManifest.resync(moduleWARPath, manifestPath, moduleWARSource.toPath());
+            }
+            if (moduleWARSource.exists() && moduleWARSource.isDirectory()) {
+                FileUtils.deleteDirectory(moduleWARSource);
+            }
+            return SourceManifest.empty(moduleWARPath, manifestPath);
+        } catch (IOException e) {
+            throw new BusinessException("Failed to prepare module war source directory", e);
+        }
+    }
 
-        if (System.getenv("MAVEN_HOME") != null) {
-            mvnHome = System.getenv("MAVEN_HOME");
-        } else if (System.getenv("M2_HOME") != null) {
-            mvnHome = System.getenv("M2_HOME");
-        } else if (System.getenv("MVN_HOME") != null) {
-            mvnHome = System.getenv("MVN_HOME");
+    /*
+     * Generate module war file in local repo folder, Maven is skipped when the build inputs did not change
+     * since the last successful build
+     */
+    private BuildFingerprint.BuildPlan generateWAR(String moduleCode, File moduleWARDirectory,
+            SourceManifest sourceManifest) throws BusinessException {
+        Path fingerprintPath = moduleWARDirectory.toPath()
+                                                 .resolveSibling(moduleWARDirectory.getName() + BUILD_FINGERPRINT_EXTENSION);
+        File warFile = new File(moduleWARDirectory, "target/" + moduleCode + ".war");
+        BuildFingerprint fingerprint = BuildFingerprint.of(sourceManifest.getHashes(), Version.appVersion);
+        BuildFingerprint.BuildPlan buildPlan;
+        try {
+            buildPlan = fingerprint.planAgainst(BuildFingerprint.load(fingerprintPath), warFile.isFile());
+            LOG.info("Module WAR build plan: {}", buildPlan);
+            if (buildPlan == BuildFingerprint.BuildPlan.SKIP) {
+                LOG.info("Build inputs unchanged, reusing: {}", warFile.getAbsolutePath());
+                return buildPlan;
+            }
+            Files.deleteIfExists(fingerprintPath);
+        } catch (IOException e) {
+            throw new BusinessException("Failed to read module war build fingerprint", e);
         }
-        if (isEmpty(mvnHome)) {
-            throw new BusinessException("Failed to retrieve Maven home path");
+
+        WarBuilder warBuilder = new WarBuilder(config);
+        LOG.info("Module WAR build mode: {}", warBuilder.getMode());
+        String modulePath = moduleWARDirectory.getAbsolutePath();
+        String[] goals = buildPlan == BuildFingerprint.BuildPlan.INCREMENTAL
+                ? new String[] { "package" }
+                : new String[] { "clean", "package" };
+        BuildScheduler.withBuildSlot(config, () -> {
+            warBuilder.build(modulePath, goals);
+            return null;
+        });
+
+        try {
+            fingerprint.save(fingerprintPath);
+        } catch (IOException e) {
+            throw new BusinessException("Failed to save module war build fingerprint", e);
         }
+        return buildPlan;
+    }
 
-        LOG.info("Maven Home path: {}", mvnHome);
-        runMaven(modulePath, mvnHome, "clean", "package");
+    /*
+     * A standalone module WAR sees the classes of meveo through dependencies on meveo.ear, which also make it
+     * wait for meveo.ear to be deployed. The deployment.meveo.ear module only exports the libraries of the EAR
+     * (its lib directory), the meveo services are in its web and EJB sub-deployments, named
+     * deployment.meveo.ear.<module uri>. The dependencies are the configured ones when
+     * enterpriseapp.standalone.dependencies is set, otherwise the EAR and the sub-deployments listed by the
+     * application.xml of the deployed meveo.ear, except the module WARs.
+     */
+    private String generateDeploymentStructure() {
+        StringBuilder dependencies = new StringBuilder();
+        for (String dependency : getStandaloneDependencies()) {
+            dependencies.append("      <module name=\"").append(dependency).append("\" export=\"true\"/>")
+                        .append(System.lineSeparator());
+        }
+        return String.join(System.lineSeparator(),
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+                "<jboss-deployment-structure xmlns=\"urn:jboss:deployment-structure:1.2\">",
+                "  <deployment>",
+                "    <dependencies>",
+                dependencies + "    </dependencies>",
+                "  </deployment>",
+                "</jboss-deployment-structure>",
+                "");
     }
 
-    private void runMaven(String mavenEEDirectory, String mvnHome, String... targets) throws BusinessException {
-        InvocationRequest request = new DefaultInvocationRequest();
-        request.setBaseDirectory(new File(mavenEEDirectory));
-        request.setGoals(Arrays.asList(targets));
+    private List<String> getStandaloneDependencies() {
+        String configuredDependencies = config.getProperty(STANDALONE_DEPENDENCIES_PROPERTY, "");
+        if (isNotBlank(configuredDependencies)) {
+            return Arrays.asList(split(configuredDependencies, ", "));
+        }
 
+        List<String> dependencies = new ArrayList<>();
+        dependencies.add(MEVEO_EAR_DEPENDENCY);
+        Path earPath = Paths.get(System.getProperty("jboss.home.dir", "."), "standalone", "deployments",
+                "meveo.ear");
         try {
-            DefaultInvoker invoker = new DefaultInvoker();
-            invoker.setMavenHome(new File(mvnHome));
-            label("Executing maven {} using pom.xml in: {}", targets, mavenEEDirectory);
-            invoker.execute(request);
-        } catch (MavenInvocationException e) {
-            LOG.error("Failed to mvn package for maven pom.xml", e);
-            throw new BusinessException("Failed creating file." + e.getMessage());
+            byte[] descriptor;
+            if (Files.isDirectory(earPath)) {
+                descriptor = Files.readAllBytes(earPath.resolve(EarRepacker.APPLICATION_DESCRIPTOR));
+            } else {
+                try (ZipFile earFile = new ZipFile(earPath.toFile())) {
+                    ZipEntry descriptorEntry = earFile.getEntry(EarRepacker.APPLICATION_DESCRIPTOR);
+                    if (descriptorEntry == null) {
+                        throw new IOException(EarRepacker.APPLICATION_DESCRIPTOR + " not found");
+                    }
+                    try (InputStream descriptorInput = earFile.getInputStream(descriptorEntry)) {
+                        descriptor = descriptorInput.readAllBytes();
+                    }
+                }
+            }
+            for (String moduleUri : ApplicationDescriptorPatcher.getModuleUris(descriptor)) {
+                dependencies.add(MEVEO_EAR_DEPENDENCY + "." + moduleUri);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.warn("Failed to read the modules of: {}, only depending on: {}, set: {} to the sub-deployments to"
+                    + " depend on", earPath, MEVEO_EAR_DEPENDENCY, STANDALONE_DEPENDENCIES_PROPERTY, e);
         }
+        LOG.info("Standalone WAR dependencies: {}", dependencies);
+        return dependencies;
     }
 
     /*
@@ -326,13 +677,13 @@ public class ModuleWarGenerator extends Script {
      * create a DTO class for each endpoint
      *
      * @param moduleCode
-     * @param endpoint
+     * @param definition
      * @param endpointDTOClass
      * @return
      */
-    String generateEndpointDTO(String moduleCode, Endpoint endpoint, String endpointDTOClass) {
+    String generateEndpointDTO(String moduleCode, EndpointDefinition definition, String endpointDTOClass) {
         CompilationUnit compilationUnit = new CompilationUnit();
-        ScriptInstance scriptInstance = scriptInstanceService.findByCode(endpoint.getService().getCode());
+        Endpoint endpoint = definition.getEndpoint();
         StringBuilder dtoPackage = new StringBuilder("org.meveo.").append(toCamelCase(moduleCode)).append(".dto");
         compilationUnit.setPackageDeclaration(dtoPackage.toString());
         compilationUnit.getImports()
@@ -348,11 +699,7 @@ public class ModuleWarGenerator extends Script {
 
         for (TSParameterMapping parameterMapping : parametersMappings) {
 
-            String pathParameterType = scriptInstance
-                    .getSetters().stream()
-                    .filter(p -> p.getName().equalsIgnoreCase(parameterMapping.getParameterName()))
-                    .map(p -> p.getType())
-                    .findFirst().get();
+            String pathParameterType = definition.getSetterType(parameterMapping.getParameterName());
 
             FieldDeclaration entityClassField = new FieldDeclaration();
             VariableDeclarator entityClassVar = new VariableDeclarator();
@@ -400,15 +747,24 @@ public class ModuleWarGenerator extends Script {
     /**
      * Generate EndPoint class
      *
-     * @param endpoint
+     * @param definition
      * @param endpointDTOClass
      * @param moduleCode
+     * @param generationOptions
      * @return
      */
-    public String generateEndpoint(String moduleCode, Endpoint endpoint, String endpointDTOClass) {
+    public String generateEndpoint(String moduleCode, EndpointDefinition definition, String endpointDTOClass,
+            GenerationOptions generationOptions) {
+        Endpoint endpoint = definition.getEndpoint();
         String endpointCode = endpoint.getCode();
         String httpMethod = endpoint.getMethod().getLabel();
         String serviceCode = getServiceCode(endpoint.getService().getCode());
+        GenerationOptions.ResourceScope resourceScope = generationOptions.getResourceScope(endpointCode);
+        boolean async = generationOptions.isAsync(endpointCode);
+        boolean responseCache = isResponseCached(definition, generationOptions);
+        boolean metrics = generationOptions.isMetricsEnabled(endpointCode);
+        boolean streaming = isStreamed(definition, generationOptions);
+        boolean bulk = endpointDTOClass != null && generationOptions.isBulk(endpointCode);
 
         CompilationUnit cu = new CompilationUnit();
         String modulePackage = "org.meveo." + toCamelCase(moduleCode);
@@ -418,8 +774,56 @@ public class ModuleWarGenerator extends Script {
         cu.getImports().add(new ImportDeclaration(new Name("java.util"), false, true));
         cu.getImports().add(new ImportDeclaration(new Name("javax.ws.rs"), false, true));
         cu.getImports().add(new ImportDeclaration(new Name("javax.ws.rs.core"), false, true));
-        cu.getImports().add(new ImportDeclaration(new Name("javax.enterprise.context.RequestScoped"), false, false));
+        if (resourceScope == GenerationOptions.ResourceScope.REQUEST) {
+            cu.getImports().add(new ImportDeclaration(new Name("javax.enterprise.context.RequestScoped"), false, false));
+        } else {
+            if (resourceScope == GenerationOptions.ResourceScope.APPLICATION) {
+                cu.getImports()
+                  .add(new ImportDeclaration(new Name("javax.enterprise.context.ApplicationScoped"), false, false));
+            } else {
+                cu.getImports().add(new ImportDeclaration(new Name("javax.ejb.Stateless"), false, false));
+            }
+            cu.getImports().add(new ImportDeclaration(new Name("javax.servlet.http.HttpServletRequest"), false, false));
+            cu.getImports()
+              .add(new ImportDeclaration(new Name("javax.servlet.http.HttpServletResponse"), false, false));
+        }
         cu.getImports().add(new ImportDeclaration(new Name("javax.inject.Inject"), false, false));
+        if (resourceScope != GenerationOptions.ResourceScope.REQUEST || async) {
+            cu.getImports().add(new ImportDeclaration(new Name("javax.enterprise.inject.Instance"), false, false));
+        }
+        if (async) {
+            cu.getImports().add(new ImportDeclaration(
+                    new Name("javax.enterprise.context.control.RequestContextController"), false, false));
+            cu.getImports().add(new ImportDeclaration(new Name("java.util.concurrent.TimeUnit"), false, false));
+            cu.getImports().add(new ImportDeclaration(new Name("javax.annotation.Resource"), false, false));
+            cu.getImports().add(
+                    new ImportDeclaration(new Name("javax.enterprise.concurrent.ManagedExecutorService"), false, false));
+            cu.getImports().add(new ImportDeclaration(new Name("javax.ws.rs.container.AsyncResponse"), false, false));
+            cu.getImports().add(new ImportDeclaration(new Name("javax.ws.rs.container.Suspended"), false, false));
+            if (metrics) {
+                cu.getImports().add(
+                        new ImportDeclaration(new Name("javax.ws.rs.container.CompletionCallback"), false, false));
+            }
+        }
+        if (metrics) {
+            cu.getImports().add(new ImportDeclaration(
+                    new Name(modulePackage + ".rest." + EndpointSupportGenerator.ENDPOINT_METRICS_CLASS), false, false));
+        }
+        if (streaming) {
+            cu.getImports().add(new ImportDeclaration(new Name("javax.ws.rs.ext.Providers"), false, false));
+            cu.getImports().add(new ImportDeclaration(
+                    new Name(modulePackage + ".rest." + EndpointSupportGenerator.JSON_STREAMS_CLASS), false, false));
+        }
+        if (bulk) {
+            cu.getImports().add(new ImportDeclaration(
+                    new Name(modulePackage + ".rest." + EndpointSupportGenerator.BULK_OPERATIONS_CLASS), false, false));
+            cu.getImports().add(new ImportDeclaration(
+                    new Name(modulePackage + ".rest." + EndpointSupportGenerator.BATCH_TRANSACTION_CLASS), false, false));
+        }
+        if (responseCache) {
+            cu.getImports().add(new ImportDeclaration(
+                    new Name(modulePackage + ".rest." + EndpointSupportGenerator.RESPONSE_CACHE_CLASS), false, false));
+        }
         cu.getImports()
           .add(new ImportDeclaration(new Name("org.meveo.admin.exception.BusinessException"), false, false));
         cu.getImports().add(new ImportDeclaration(new Name(CUSTOM_ENDPOINT_BASE_RESOURCE_PACKAGE), false, false));
@@ -433,18 +837,104 @@ public class ModuleWarGenerator extends Script {
 
         String injectedFieldName = "_" + toCamelCase(serviceCode);
         ClassOrInterfaceDeclaration clazz = generateRESTClass(cu, toPascalCase(endpointCode), endpoint.getBasePath(),
-                serviceCode, injectedFieldName);
-        MethodDeclaration restMethodSignature = generateRESTMethodSignature(endpoint, clazz, httpMethod,
-                endpointDTOClass, endpoint.getContentType());
+                serviceCode, injectedFieldName, resourceScope);
+        if (resourceScope != GenerationOptions.ResourceScope.REQUEST
+                && !getConstantParameterNames(endpoint).isEmpty()) {
+            generateConstantParameters(clazz, endpoint);
+        }
+        if (async) {
+            clazz.addField("ManagedExecutorService", EXECUTOR_FIELD, Modifier.Keyword.PRIVATE)
+                 .addSingleMemberAnnotation("Resource", new AssignExpr(new NameExpr("lookup"),
+                         new StringLiteralExpr(generationOptions.getAsyncExecutor(endpointCode)),
+                         AssignExpr.Operator.ASSIGN));
+            clazz.addField("Instance<RequestContextController>", REQUEST_CONTEXT_PROVIDER_FIELD,
+                    Modifier.Keyword.PRIVATE).addMarkerAnnotation("Inject");
+            if (resourceScope == GenerationOptions.ResourceScope.REQUEST) {
+                // the injected script belongs to the request, done with by the time the task runs
+                clazz.addField("Instance<" + serviceCode + ">", injectedFieldName + SCRIPT_PROVIDER_SUFFIX,
+                        Modifier.Keyword.PRIVATE).addMarkerAnnotation("Inject");
+            }
+        }
+        if (responseCache) {
+            clazz.addFieldWithInitializer(EndpointSupportGenerator.RESPONSE_CACHE_CLASS, RESPONSE_CACHE_FIELD,
+                    new MethodCallExpr(new NameExpr(EndpointSupportGenerator.RESPONSE_CACHE_CLASS), "get")
+                            .addArgument(new StringLiteralExpr(endpointCode))
+                            .addArgument(new IntegerLiteralExpr(
+                                    String.valueOf(generationOptions.getResponseCacheSize(endpointCode))))
+                            .addArgument(new LongLiteralExpr(generationOptions.getResponseCacheTtl(endpointCode) + "L")),
+                    Modifier.Keyword.PRIVATE, Modifier.Keyword.STATIC, Modifier.Keyword.FINAL);
+        }
+        if (metrics) {
+            clazz.addFieldWithInitializer(EndpointSupportGenerator.ENDPOINT_METRICS_CLASS, METRICS_FIELD,
+                    new MethodCallExpr(new NameExpr(EndpointSupportGenerator.ENDPOINT_METRICS_CLASS), "get")
+                            .addArgument(new StringLiteralExpr(endpointCode))
+                            .addArgument(new StringLiteralExpr(httpMethod)),
+                    Modifier.Keyword.PRIVATE, Modifier.Keyword.STATIC, Modifier.Keyword.FINAL);
+        }
+        if (bulk) {
+            clazz.addField(EndpointSupportGenerator.BATCH_TRANSACTION_CLASS, BATCH_TRANSACTION_FIELD,
+                    Modifier.Keyword.PRIVATE).addMarkerAnnotation("Inject");
+            clazz.addFieldWithInitializer("int", BULK_BATCH_SIZE_FIELD,
+                    new IntegerLiteralExpr(String.valueOf(generationOptions.getBulkBatchSize(endpointCode))),
+                    Modifier.Keyword.PRIVATE, Modifier.Keyword.STATIC, Modifier.Keyword.FINAL);
+        }
+        MethodDeclaration restMethodSignature = generateRESTMethodSignature(definition, clazz,
+                httpMethod, endpointDTOClass, endpoint.getContentType());
+        if (streaming) {
+            Parameter providersParameter = new Parameter().setType("Providers").setName(PROVIDERS_PARAMETER);
+            providersParameter.addMarkerAnnotation("Context");
+            restMethodSignature.addParameter(providersParameter);
+        }
 
         VariableDeclarator var_result = new VariableDeclarator();
 
-        BlockStmt beforeTrybBlockStmt = generateBeforeTryBlockStmt(endpoint, var_result, endpointDTOClass);
+        BlockStmt beforeTrybBlockStmt;
+        if (resourceScope == GenerationOptions.ResourceScope.REQUEST) {
+            beforeTrybBlockStmt = generateBeforeTryBlockStmt(definition, var_result, endpointDTOClass);
+        } else {
+            beforeTrybBlockStmt = generateSharedBeforeTryBlockStmt(definition, var_result, endpointDTOClass);
+        }
         Statement tryBlockstatement = generateTryBlock(endpoint, var_result, injectedFieldName, endpointDTOClass);
-        beforeTrybBlockStmt.addStatement(tryBlockstatement);
+        BlockStmt scriptBlockStmt = async ? new BlockStmt() : beforeTrybBlockStmt;
+        if (resourceScope != GenerationOptions.ResourceScope.REQUEST || async) {
+            scriptBlockStmt.addStatement(StaticJavaParser.parseStatement(serviceCode + " " + injectedFieldName + " = "
+                    + injectedFieldName + SCRIPT_PROVIDER_SUFFIX + ".get();"));
+            ((TryStmt) tryBlockstatement).setFinallyBlock(new BlockStmt().addStatement(
+                    new MethodCallExpr(new NameExpr(injectedFieldName + SCRIPT_PROVIDER_SUFFIX), "destroy")
+                            .addArgument(injectedFieldName)));
+        }
+
+        if (async) {
+            // the result is assigned in the executor task
+            Statement resultDeclaration = beforeTrybBlockStmt.getStatement(0);
+            beforeTrybBlockStmt.remove(resultDeclaration);
+            scriptBlockStmt.getStatements().addFirst(resultDeclaration);
+            toAsyncTryStmt((TryStmt) tryBlockstatement, getOkResponse(responseCache, streaming));
+        }
+        if (metrics) {
+            scriptBlockStmt.addStatement(StaticJavaParser.parseStatement("long scriptStart = System.nanoTime();"));
+            generateScriptMetrics((TryStmt) tryBlockstatement);
+        }
+        scriptBlockStmt.addStatement(tryBlockstatement);
 
-        restMethodSignature.setBody(beforeTrybBlockStmt);
-        restMethodSignature.getBody().get().getStatements().add(getReturnType());
+        if (async) {
+            generateAsyncExecution(restMethodSignature, beforeTrybBlockStmt, scriptBlockStmt,
+                    generationOptions.getAsyncTimeout(endpointCode));
+        } else {
+            restMethodSignature.setBody(beforeTrybBlockStmt);
+            restMethodSignature.getBody().get().getStatements().add(new ReturnStmt(getOkResponse(responseCache, streaming)));
+        }
+
+        if (responseCache) {
+            generateResponseCacheLookup(definition, restMethodSignature, async);
+        }
+        if (metrics) {
+            generateRequestMetrics(restMethodSignature, async);
+        }
+        if (bulk) {
+            generateBulkMethod(clazz, definition, restMethodSignature, endpointDTOClass, serviceCode,
+                    injectedFieldName, resourceScope);
+        }
 
         LOG.info("Successfully generated endpoint: {} - {}", httpMethod, endpointCode);
 
@@ -454,17 +944,17 @@ public class ModuleWarGenerator extends Script {
     /**
      * Exmaple :  parameterMap.put("product", createProductRSDTO.getProduct());
      *
-     * @param endpoint
+     * @param definition
      * @param var_result
      * @param endpointDTOClass
      * @return
      */
-    private BlockStmt generateBeforeTryBlockStmt(Endpoint endpoint, VariableDeclarator var_result,
+    private BlockStmt generateBeforeTryBlockStmt(EndpointDefinition definition, VariableDeclarator var_result,
             String endpointDTOClass) {
         BlockStmt beforeTryBlock = new BlockStmt();
+        Endpoint endpoint = definition.getEndpoint();
 
-        ScriptInstance scriptInstance = scriptInstanceService.findByCode(endpoint.getService().getCode());
-        for (Accessor getter : scriptInstance.getGetters()) {
+        for (Accessor getter : definition.getScriptInstance().getGetters()) {
             var_result.setName(getter.getName());
             var_result.setType(getter.getType());
         }
@@ -519,6 +1009,90 @@ public class ModuleWarGenerator extends Script {
         return beforeTryBlock;
     }
 
+    /**
+     * Example : Map&lt;String, Object&gt; parameterMap = new HashMap&lt;&gt;(4);
+     * parameterMap.putAll(CONSTANT_PARAMETERS);
+     * parameterMap.put("product", createProductRSDTO.getProduct());
+     * <p>
+     * The parameter map of a shared resource is local to the call, constant entries are copied from a static map
+     * and request and response are taken from the injected proxies instead of the resource fields.
+     *
+     * @param definition
+     * @param var_result
+     * @param endpointDTOClass
+     * @return
+     */
+    private BlockStmt generateSharedBeforeTryBlockStmt(EndpointDefinition definition, VariableDeclarator var_result,
+            String endpointDTOClass) {
+        BlockStmt beforeTryBlock = new BlockStmt();
+        Endpoint endpoint = definition.getEndpoint();
+
+        for (Accessor getter : definition.getScriptInstance().getGetters()) {
+            var_result.setName(getter.getName());
+            var_result.setType(getter.getType());
+        }
+        var_result.setInitializer(new NullLiteralExpr());
+        beforeTryBlock.addStatement(new ExpressionStmt(new VariableDeclarationExpr(var_result)));
+
+        List<TSParameterMapping> parametersMappings = endpoint.getParametersMappingNullSafe();
+        String methodLabel = endpoint.getMethod().getLabel();
+        boolean bodyParameters = "POST".equalsIgnoreCase(methodLabel) || "PUT".equalsIgnoreCase(methodLabel);
+        int constantParameterCount = getConstantParameterNames(endpoint).size();
+        int parameterCount = constantParameterCount + 2 + (bodyParameters ? parametersMappings.size() : 0);
+        int parameterMapCapacity = (int) (parameterCount / 0.75f) + 1;
+        beforeTryBlock.addStatement(StaticJavaParser.parseStatement(
+                "Map<String, Object> parameterMap = new HashMap<>(" + parameterMapCapacity + ");"));
+        if (constantParameterCount > 0) {
+            beforeTryBlock.addStatement(StaticJavaParser.parseStatement("parameterMap.putAll(CONSTANT_PARAMETERS);"));
+        }
+
+        if (bodyParameters) {
+            for (TSParameterMapping parameterMapping : parametersMappings) {
+                beforeTryBlock.addStatement(new MethodCallExpr(new NameExpr("parameterMap"), "put")
+                        .addArgument(new StringLiteralExpr(toCamelCase(parameterMapping.getParameterName())))
+                        .addArgument(new MethodCallExpr(new NameExpr(toCamelCase(endpointDTOClass)),
+                                getterMethodCall(parameterMapping.getParameterName()))));
+            }
+        }
+        beforeTryBlock.addStatement(new MethodCallExpr(new NameExpr("parameterMap"), "put")
+                .addArgument(new StringLiteralExpr(REQUEST_PARAMETER)).addArgument(HTTP_REQUEST_FIELD));
+        beforeTryBlock.addStatement(new MethodCallExpr(new NameExpr("parameterMap"), "put")
+                .addArgument(new StringLiteralExpr(RESPONSE_PARAMETER)).addArgument(HTTP_RESPONSE_FIELD));
+        return beforeTryBlock;
+    }
+
+    /*
+     * Parameters whose value does not depend on the request are put once in a static map
+     */
+    private void generateConstantParameters(ClassOrInterfaceDeclaration clazz, Endpoint endpoint) {
+        clazz.addField("Map<String, Object>", "CONSTANT_PARAMETERS", Modifier.Keyword.PRIVATE,
+                Modifier.Keyword.STATIC, Modifier.Keyword.FINAL);
+        BlockStmt staticInitializer = clazz.addStaticInitializer();
+        staticInitializer.addStatement(
+                StaticJavaParser.parseStatement("Map<String, Object> constantParameters = new HashMap<>();"));
+        for (String parameterName : getConstantParameterNames(endpoint)) {
+            staticInitializer.addStatement(new MethodCallExpr(new NameExpr("constantParameters"), "put")
+                    .addArgument(new StringLiteralExpr(parameterName))
+                    .addArgument(new StringLiteralExpr(parameterName)));
+        }
+        staticInitializer.addStatement(StaticJavaParser.parseStatement(
+                "CONSTANT_PARAMETERS = Collections.unmodifiableMap(constantParameters);"));
+    }
+
+    private List<String> getConstantParameterNames(Endpoint endpoint) {
+        List<String> parameterNames = new ArrayList<>();
+        String methodLabel = endpoint.getMethod().getLabel();
+        if ("GET".equalsIgnoreCase(methodLabel) || "DELETE".equalsIgnoreCase(methodLabel)) {
+            for (TSParameterMapping parameterMapping : endpoint.getParametersMappingNullSafe()) {
+                parameterNames.add(parameterMapping.getParameterName());
+            }
+        }
+        for (EndpointPathParameter endpointPathParameter : endpoint.getPathParametersNullSafe()) {
+            parameterNames.add(endpointPathParameter.toString());
+        }
+        return parameterNames;
+    }
+
     /**
      * Create REST class
      *
@@ -527,15 +1101,36 @@ public class ModuleWarGenerator extends Script {
      * @param httpBasePath
      * @param serviceCode
      * @param injectedFieldName
+     * @param resourceScope
      * @return
      */
     private ClassOrInterfaceDeclaration generateRESTClass(CompilationUnit cu, String endpointCode,
-            String httpBasePath, String serviceCode, String injectedFieldName) {
+            String httpBasePath, String serviceCode, String injectedFieldName,
+            GenerationOptions.ResourceScope resourceScope) {
         ClassOrInterfaceDeclaration clazz = cu.addClass(endpointCode, Modifier.Keyword.PUBLIC);
         clazz.addSingleMemberAnnotation("Path", new StringLiteralExpr(httpBasePath));
-        clazz.addMarkerAnnotation("RequestScoped");
-        var injectedfield = clazz.addField(serviceCode, injectedFieldName, Modifier.Keyword.PRIVATE);
-        injectedfield.addMarkerAnnotation("Inject");
+        switch (resourceScope) {
+        case APPLICATION:
+            clazz.addMarkerAnnotation("ApplicationScoped");
+            clazz.addField("Instance<" + serviceCode + ">", injectedFieldName + SCRIPT_PROVIDER_SUFFIX,
+                    Modifier.Keyword.PRIVATE).addMarkerAnnotation("Inject");
+            break;
+        case STATELESS:
+            clazz.addMarkerAnnotation("Stateless");
+            clazz.addField("Instance<" + serviceCode + ">", injectedFieldName + SCRIPT_PROVIDER_SUFFIX,
+                    Modifier.Keyword.PRIVATE).addMarkerAnnotation("Inject");
+            break;
+        default:
+            clazz.addMarkerAnnotation("RequestScoped");
+            var injectedfield = clazz.addField(serviceCode, injectedFieldName, Modifier.Keyword.PRIVATE);
+            injectedfield.addMarkerAnnotation("Inject");
+        }
+        if (resourceScope != GenerationOptions.ResourceScope.REQUEST) {
+            clazz.addField("HttpServletRequest", HTTP_REQUEST_FIELD, Modifier.Keyword.PRIVATE)
+                 .addMarkerAnnotation("Context");
+            clazz.addField("HttpServletResponse", HTTP_RESPONSE_FIELD, Modifier.Keyword.PRIVATE)
+                 .addMarkerAnnotation("Context");
+        }
 
         NodeList<ClassOrInterfaceType> extendsList = new NodeList<>();
         extendsList.add(new ClassOrInterfaceType().setName(new SimpleName(CUSTOM_ENDPOINT_RESOURCE)));
@@ -549,16 +1144,16 @@ public class ModuleWarGenerator extends Script {
     /**
      * Example : public Response execute(CreateProductRSDTO createProductRSDTO)
      *
-     * @param endpoint
+     * @param definition
      * @param clazz
      * @param httpMethod
      * @param endpointDTOClass
      * @param contentType
      * @return
      */
-    private MethodDeclaration generateRESTMethodSignature(Endpoint endpoint, ClassOrInterfaceDeclaration clazz,
-            String httpMethod, String endpointDTOClass, String contentType) {
-        ScriptInstance scriptInstance = scriptInstanceService.findByCode(endpoint.getService().getCode());
+    private MethodDeclaration generateRESTMethodSignature(EndpointDefinition definition,
+            ClassOrInterfaceDeclaration clazz, String httpMethod, String endpointDTOClass, String contentType) {
+        Endpoint endpoint = definition.getEndpoint();
         MethodDeclaration restMethod = clazz.addMethod("execute", Modifier.Keyword.PUBLIC);
         restMethod.setType("Response");
         restMethod.addMarkerAnnotation(httpMethod);
@@ -574,11 +1169,7 @@ public class ModuleWarGenerator extends Script {
         for (EndpointPathParameter endpointPathParameter : pathParameters) {
             Parameter restMethodParameter = new Parameter();
             String parameterName = endpointPathParameter.toString();
-            String pathParameterType = scriptInstance.getSetters().stream()
-                                                     .filter(p -> p.getName()
-                                                                   .equalsIgnoreCase(parameterName))
-                                                     .map(p -> p.getType())
-                                                     .findFirst().get();
+            String pathParameterType = definition.getSetterType(parameterName);
             restMethodParameter.setType(pathParameterType);
             restMethodParameter.setName(parameterName);
             restMethodParameter.addSingleMemberAnnotation("PathParam", new StringLiteralExpr(parameterName));
@@ -597,11 +1188,7 @@ public class ModuleWarGenerator extends Script {
 
             for (TSParameterMapping queryMapping : parametersMappings) {
                 Parameter restMethodParameter = new Parameter();
-                String pathParameterType = scriptInstance.getSetters().stream()
-                                                         .filter(p -> p.getName().equalsIgnoreCase(
-                                                                 queryMapping.getParameterName()))
-                                                         .map(p -> p.getType())
-                                                         .findFirst().get();
+                String pathParameterType = definition.getSetterType(queryMapping.getParameterName());
                 restMethodParameter.setType(pathParameterType);
                 restMethodParameter.setName(queryMapping.getParameterName());
                 restMethodParameter.addSingleMemberAnnotation("QueryParam",
@@ -674,6 +1261,307 @@ public class ModuleWarGenerator extends Script {
         return addingException(tryBlock);
     }
 
+    /**
+     * Example : public void execute(@Suspended AsyncResponse asyncResponse, CreateProductRSDTO createProductRSDTO)
+     * <p>
+     * The parameter map is built on the request thread, the script runs on the managed executor and resumes the
+     * response. Without a timeout handler a timed out response is resumed with a 503. Executor threads have no
+     * request context, the task activates one around the script, which it gets from its provider.
+     *
+     * @param restMethod
+     * @param requestBlockStmt
+     * @param scriptBlockStmt
+     * @param timeoutSeconds
+     */
+    private void generateAsyncExecution(MethodDeclaration restMethod, BlockStmt requestBlockStmt,
+            BlockStmt scriptBlockStmt, long timeoutSeconds) {
+        restMethod.setType("void");
+        Parameter asyncResponseParameter = new Parameter().setType("AsyncResponse").setName(ASYNC_RESPONSE_PARAMETER);
+        asyncResponseParameter.addMarkerAnnotation("Suspended");
+        restMethod.getParameters().addFirst(asyncResponseParameter);
+
+        if (timeoutSeconds > 0) {
+            requestBlockStmt.addStatement(new MethodCallExpr(new NameExpr(ASYNC_RESPONSE_PARAMETER), "setTimeout")
+                    .addArgument(new LongLiteralExpr(timeoutSeconds + "L"))
+                    .addArgument(new NameExpr("TimeUnit.SECONDS")));
+        }
+        BlockStmt taskBlockStmt = new BlockStmt()
+                .addStatement(StaticJavaParser.parseStatement("RequestContextController requestContext = "
+                        + REQUEST_CONTEXT_PROVIDER_FIELD + ".get();"))
+                .addStatement(StaticJavaParser.parseStatement("requestContext.activate();"))
+                .addStatement(new TryStmt(scriptBlockStmt, new NodeList<>(), new BlockStmt()
+                        .addStatement(StaticJavaParser.parseStatement("requestContext.deactivate();"))
+                        .addStatement(StaticJavaParser.parseStatement(
+                                REQUEST_CONTEXT_PROVIDER_FIELD + ".destroy(requestContext);"))));
+        requestBlockStmt.addStatement(new MethodCallExpr(new NameExpr(EXECUTOR_FIELD), "execute")
+                .addArgument(new LambdaExpr(new NodeList<>(), taskBlockStmt)));
+        restMethod.setBody(requestBlockStmt);
+    }
+
+    /*
+     * Resume the response at the end of the try block and in the catch clauses instead of returning it
+     */
+    private TryStmt toAsyncTryStmt(TryStmt tryStmt, Expression okResponse) {
+        tryStmt.getTryBlock().addStatement(resumeStatement(okResponse));
+        for (CatchClause catchClause : tryStmt.getCatchClauses()) {
+            catchClause.setBody(new BlockStmt().addStatement(resumeStatement(
+                    new NameExpr("Response.status(Response.Status.BAD_REQUEST).entity(result).build()"))));
+        }
+        CatchClause runtimeCatchClause = new CatchClause()
+                .setParameter(new Parameter().setName("e").setType(RuntimeException.class))
+                .setBody(new BlockStmt().addStatement(resumeStatement(new NameExpr("e"))));
+        tryStmt.getCatchClauses().add(runtimeCatchClause);
+        return tryStmt;
+    }
+
+    private Statement resumeStatement(Expression response) {
+        return new ExpressionStmt(
+                new MethodCallExpr(new NameExpr(ASYNC_RESPONSE_PARAMETER), "resume").addArgument(response));
+    }
+
+    /**
+     * Example : String cacheKey = ResponseCache.key(id, category);
+     * ResponseCache.Entry cachedEntry = RESPONSE_CACHE.get(cacheKey);
+     * if (cachedEntry != null) {
+     * return cachedEntry.toResponse(restRequest);
+     * }
+     *
+     * @param definition
+     * @param restMethod
+     * @param async
+     */
+    private void generateResponseCacheLookup(EndpointDefinition definition, MethodDeclaration restMethod,
+            boolean async) {
+        Endpoint endpoint = definition.getEndpoint();
+        Parameter restRequestParameter = new Parameter().setType("Request").setName(REST_REQUEST_PARAMETER);
+        restRequestParameter.addMarkerAnnotation("Context");
+        restMethod.addParameter(restRequestParameter);
+        Parameter securityContextParameter = new Parameter().setType("SecurityContext")
+                                                            .setName(SECURITY_CONTEXT_PARAMETER);
+        securityContextParameter.addMarkerAnnotation("Context");
+        restMethod.addParameter(securityContextParameter);
+
+        MethodCallExpr cacheKey = new MethodCallExpr(new NameExpr(EndpointSupportGenerator.RESPONSE_CACHE_CLASS),
+                "key").addArgument(SECURITY_CONTEXT_PARAMETER);
+        for (EndpointPathParameter pathParameter : endpoint.getPathParametersNullSafe()) {
+            cacheKey.addArgument(pathParameter.toString());
+        }
+        for (TSParameterMapping parameterMapping : endpoint.getParametersMappingNullSafe()) {
+            cacheKey.addArgument(parameterMapping.getParameterName());
+        }
+
+        Expression cachedResponse = new MethodCallExpr(new NameExpr("cachedEntry"), "toResponse")
+                .addArgument(REST_REQUEST_PARAMETER);
+        BlockStmt hitBlock = new BlockStmt();
+        if (async) {
+            hitBlock.addStatement(resumeStatement(cachedResponse));
+            hitBlock.addStatement(new ReturnStmt());
+        } else {
+            hitBlock.addStatement(new ReturnStmt(cachedResponse));
+        }
+
+        NodeList<Statement> statements = restMethod.getBody().get().getStatements();
+        statements.add(0, new ExpressionStmt(new VariableDeclarationExpr(
+                new VariableDeclarator(StaticJavaParser.parseType("String"), CACHE_KEY_VARIABLE, cacheKey))));
+        statements.add(1, new ExpressionStmt(new VariableDeclarationExpr(new VariableDeclarator(
+                StaticJavaParser.parseType(EndpointSupportGenerator.RESPONSE_CACHE_CLASS + ".Entry"), "cachedEntry",
+                new MethodCallExpr(new NameExpr(RESPONSE_CACHE_FIELD), "get").addArgument(CACHE_KEY_VARIABLE)))));
+        statements.add(2, new IfStmt(new BinaryExpr(new NameExpr("cachedEntry"), new NullLiteralExpr(),
+                BinaryExpr.Operator.NOT_EQUALS), hitBlock, null));
+    }
+
+    /*
+     * Record the script time when the try block ends, and count the BAD_REQUEST and unexpected failures
+     */
+    private void generateScriptMetrics(TryStmt tryStmt) {
+        BlockStmt finallyBlock = tryStmt.getFinallyBlock().orElseGet(BlockStmt::new);
+        finallyBlock.getStatements().addFirst(StaticJavaParser.parseStatement(
+                METRICS_FIELD + ".recordScript(System.nanoTime() - scriptStart);"));
+        tryStmt.setFinallyBlock(finallyBlock);
+        for (CatchClause catchClause : tryStmt.getCatchClauses()) {
+            String exceptionType = catchClause.getParameter().getType().asString();
+            String counter = BusinessException.class.getSimpleName().equals(exceptionType) ? "error" : "failure";
+            catchClause.getBody().getStatements().addFirst(
+                    new ExpressionStmt(new MethodCallExpr(new NameExpr(METRICS_FIELD), counter)));
+        }
+    }
+
+    /**
+     * Example : long requestStart = System.nanoTime();
+     * try { ... } catch (RuntimeException e) { METRICS.failure(); throw e; }
+     * finally { METRICS.recordRequest(System.nanoTime() - requestStart); }
+     * <p>
+     * Asynchronous requests are recorded by a completion callback, once the response is sent.
+     *
+     * @param restMethod
+     * @param async
+     */
+    private void generateRequestMetrics(MethodDeclaration restMethod, boolean async) {
+        Statement requestStart = StaticJavaParser.parseStatement("long requestStart = System.nanoTime();");
+        String recordRequest = METRICS_FIELD + ".recordRequest(System.nanoTime() - requestStart)";
+        BlockStmt body = restMethod.getBody().get();
+        if (async) {
+            body.getStatements().addFirst(StaticJavaParser.parseStatement(ASYNC_RESPONSE_PARAMETER
+                    + ".register((CompletionCallback) throwable -> " + recordRequest + ");"));
+            body.getStatements().addFirst(requestStart);
+            return;
+        }
+        CatchClause failureCatchClause = new CatchClause()
+                .setParameter(new Parameter().setName("e").setType(RuntimeException.class))
+                .setBody(new BlockStmt()
+                        .addStatement(new MethodCallExpr(new NameExpr(METRICS_FIELD), "failure"))
+                        .addStatement(new ThrowStmt(new NameExpr("e"))));
+        TryStmt requestTryStmt = new TryStmt(body, new NodeList<>(failureCatchClause),
+                new BlockStmt().addStatement(StaticJavaParser.parseStatement(recordRequest + ";")));
+        restMethod.setBody(new BlockStmt().addStatement(requestStart).addStatement(requestTryStmt));
+    }
+
+    /**
+     * Example : &#64;POST &#64;Path("/bulk")
+     * public Response executeBulk(List&lt;CreateProductDTO&gt; bulkItems)
+     * <p>
+     * Companion of a POST or PUT method running the script for every DTO of a JSON array, in batches committed
+     * in their own transaction, and answering with the result or error of every item.
+     *
+     * @param clazz
+     * @param definition
+     * @param restMethod
+     * @param endpointDTOClass
+     * @param serviceCode
+     * @param injectedFieldName
+     * @param resourceScope
+     */
+    private void generateBulkMethod(ClassOrInterfaceDeclaration clazz, EndpointDefinition definition,
+            MethodDeclaration restMethod, String endpointDTOClass, String serviceCode, String injectedFieldName,
+            GenerationOptions.ResourceScope resourceScope) {
+        Endpoint endpoint = definition.getEndpoint();
+        MethodDeclaration bulkMethod = clazz.addMethod("executeBulk", Modifier.Keyword.PUBLIC);
+        bulkMethod.setType("Response");
+        bulkMethod.addMarkerAnnotation(endpoint.getMethod().getLabel());
+        String path = restMethod.getAnnotationByName("Path")
+                .map(annotation -> ((SingleMemberAnnotationExpr) annotation).getMemberValue()
+                        .asStringLiteralExpr().getValue())
+                .orElse("");
+        bulkMethod.addSingleMemberAnnotation("Path", new StringLiteralExpr(path + "/bulk"));
+        restMethod.getAnnotationByName("Produces").ifPresent(annotation -> bulkMethod.addAnnotation(annotation.clone()));
+        restMethod.getAnnotationByName("Consumes").ifPresent(annotation -> bulkMethod.addAnnotation(annotation.clone()));
+        bulkMethod.addParameter("List<" + endpointDTOClass + ">", "bulkItems");
+        for (Parameter parameter : restMethod.getParameters()) {
+            if (parameter.isAnnotationPresent("PathParam")) {
+                bulkMethod.addParameter(parameter.clone());
+            }
+        }
+
+        StringBuilder body = new StringBuilder("{\n");
+        body.append("if (bulkItems == null) {\n")
+            .append("return Response.status(Response.Status.BAD_REQUEST).build();\n")
+            .append("}\n");
+        List<String> constantParameterNames = getConstantParameterNames(endpoint);
+        if (resourceScope == GenerationOptions.ResourceScope.REQUEST) {
+            body.append("parameterMap = new HashMap<String, Object>();\n");
+            for (String parameterName : constantParameterNames) {
+                body.append("parameterMap.put(\"").append(parameterName).append("\", \"").append(parameterName)
+                    .append("\");\n");
+            }
+            body.append(SET_REQUEST_RESPONSE_METHOD).append("();\n");
+        } else {
+            body.append("Map<String, Object> parameterMap = new HashMap<>();\n");
+            if (!constantParameterNames.isEmpty()) {
+                body.append("parameterMap.putAll(CONSTANT_PARAMETERS);\n");
+            }
+            body.append("parameterMap.put(\"").append(REQUEST_PARAMETER).append("\", ").append(HTTP_REQUEST_FIELD)
+                .append(");\n");
+            body.append("parameterMap.put(\"").append(RESPONSE_PARAMETER).append("\", ").append(HTTP_RESPONSE_FIELD)
+                .append(");\n");
+        }
+        if (resourceScope != GenerationOptions.ResourceScope.REQUEST) {
+            body.append(serviceCode).append(" ").append(injectedFieldName).append(" = ").append(injectedFieldName)
+                .append(SCRIPT_PROVIDER_SUFFIX).append(".get();\n")
+                .append("try {\n");
+        }
+
+        body.append("List<BulkOperations.ItemResult> bulkResults = BulkOperations.execute(")
+            .append(BATCH_TRANSACTION_FIELD).append(", bulkItems, ").append(BULK_BATCH_SIZE_FIELD)
+            .append(", bulkItem -> {\n")
+            .append("Map<String, Object> itemParameterMap = new HashMap<>(parameterMap);\n");
+        List<TSParameterMapping> parametersMappings = endpoint.getParametersMappingNullSafe();
+        for (TSParameterMapping parameterMapping : parametersMappings) {
+            body.append("itemParameterMap.put(\"").append(toCamelCase(parameterMapping.getParameterName()))
+                .append("\", bulkItem.").append(getterMethodCall(parameterMapping.getParameterName())).append("());\n");
+        }
+        for (TSParameterMapping parameterMapping : parametersMappings) {
+            body.append(injectedFieldName).append(".").append(setterMethodCall(parameterMapping.getParameterName()))
+                .append("(bulkItem.").append(getterMethodCall(parameterMapping.getParameterName())).append("());\n");
+        }
+        for (EndpointPathParameter pathParameter : endpoint.getPathParametersNullSafe()) {
+            String parameterName = pathParameter.getEndpointParameter().getParameter();
+            body.append(injectedFieldName).append(".").append(setterMethodCall(parameterName)).append("(")
+                .append(parameterName).append(");\n");
+        }
+        for (String scriptMethod : Arrays.asList("init", "execute", "finalize")) {
+            body.append(injectedFieldName).append(".").append(scriptMethod).append("(itemParameterMap);\n");
+        }
+        body.append("return ").append(injectedFieldName).append(".getResult();\n")
+            .append("});\n")
+            .append("return Response.status(Response.Status.OK).entity(bulkResults).build();\n");
+
+        if (resourceScope != GenerationOptions.ResourceScope.REQUEST) {
+            body.append("} finally {\n")
+                .append(injectedFieldName).append(SCRIPT_PROVIDER_SUFFIX).append(".destroy(")
+                .append(injectedFieldName).append(");\n")
+                .append("}\n");
+        }
+        bulkMethod.setBody(StaticJavaParser.parseBlock(body.append("}").toString()));
+        LOG.info("Successfully generated bulk method of endpoint: {}", endpoint.getCode());
+    }
+
+    /*
+     * Response of a successful call, a cached result is returned with the entity tag of its cache entry and a
+     * streamed result, never cached, is written by a StreamingOutput
+     */
+    private Expression getOkResponse(boolean responseCache, boolean streaming) {
+        if (!responseCache && !streaming) {
+            return getReturnType().getExpression().get();
+        }
+        StringBuilder response = new StringBuilder("Response.status(Response.Status.OK)");
+        if (streaming) {
+            response.append(".entity(").append(EndpointSupportGenerator.JSON_STREAMS_CLASS).append(".array(result, ")
+                    .append(PROVIDERS_PARAMETER).append(")).type(MediaType.APPLICATION_JSON)");
+        } else {
+            response.append(".entity(result)");
+        }
+        if (responseCache) {
+            response.append(".tag(").append(RESPONSE_CACHE_FIELD).append(".put(").append(CACHE_KEY_VARIABLE)
+                    .append(", result).getEntityTag())");
+        }
+        return new NameExpr(response.append(".build()").toString());
+    }
+
+    /*
+     * Streamed results are not cached: a cache hit would return the stored iterable without streaming it, and
+     * an iterable that can only be iterated once would fail on the second hit
+     */
+    private boolean isResponseCached(EndpointDefinition definition, GenerationOptions generationOptions) {
+        Endpoint endpoint = definition.getEndpoint();
+        return "GET".equalsIgnoreCase(endpoint.getMethod().getLabel())
+                && generationOptions.isResponseCached(endpoint.getCode())
+                && !isStreamed(definition, generationOptions);
+    }
+
+    /*
+     * Only results declared as a collection or iterable are streamed
+     */
+    private boolean isStreamed(EndpointDefinition definition, GenerationOptions generationOptions) {
+        if (!generationOptions.isStreaming(definition.getEndpoint().getCode())) {
+            return false;
+        }
+        String resultType = null;
+        for (Accessor getter : definition.getScriptInstance().getGetters()) {
+            resultType = getter.getType();
+        }
+        return resultType != null && ITERABLE_TYPE_PATTERN.matcher(resultType.trim()).matches();
+    }
+
     private ReturnStmt getReturnType() {
         return new ReturnStmt(new NameExpr("Response.status(Response.Status.OK).entity(result).build()"));
     }
@@ -713,7 +1601,7 @@ public class ModuleWarGenerator extends Script {
         return new ExpressionStmt(assignExpr);
     }
 
-    private String toPascalCase(String name) {
+    static String toPascalCase(String name) {
         String[] words = name.trim().split("\\W+");
         StringBuilder normalizedCode = new StringBuilder();
 
@@ -730,7 +1618,7 @@ public class ModuleWarGenerator extends Script {
      * input  : CreateMyProduct
      * return : createMyProduct
      */
-    private String toCamelCase(String name) {
+    static String toCamelCase(String name) {
         String normalizedName = toPascalCase(name);
         return normalizedName.substring(0, 1).toLowerCase() + normalizedName.substring(1);
     }
@@ -739,7 +1627,7 @@ public class ModuleWarGenerator extends Script {
      * input  : personName
      * return : setPersonName
      */
-    String setterMethodCall(String fieldName) {
+    static String setterMethodCall(String fieldName) {
         return "set" + toPascalCase(fieldName);
     }
 
@@ -747,7 +1635,7 @@ public class ModuleWarGenerator extends Script {
      * input  : personName
      * return : getPersonName
      */
-    String getterMethodCall(String fieldName) {
+    static String getterMethodCall(String fieldName) {
         return "get" + toPascalCase(fieldName);
 
     }
@@ -773,62 +1661,38 @@ public class ModuleWarGenerator extends Script {
     }
 
     /*
-     * copy files (CustomEndpointResource.java, beans.xml, pom.xml) into project directory
+     * render the files listed by the template manifest (CustomEndpointResource.java, beans.xml, pom.xml,
+     * moduledeployment.sh by default) into project directory, the pom gets the jmh profile when an endpoint
+     * is benchmarked
      */
-    private List<File> templateFileCopy(String moduleCode, Path webappTemplatePath, Path moduleWebAppPath,
-            String repositoriesTagContent) throws BusinessException {
-        List<File> filesToCommit = new ArrayList<>();
-
-        try (Stream<Path> sourceStream = Files.walk(webappTemplatePath)) {
-            List<Path> sources = sourceStream.collect(Collectors.toList());
-            List<Path> destinations = sources.stream().map(webappTemplatePath::relativize)
-                                             .map(moduleWebAppPath::resolve).collect(Collectors.toList());
-            for (int index = 0; index < sources.size(); index++) {
-                Path sourcePath = sources.get(index);
-                Path destinationPath = destinations.get(index);
-
-                if (sourcePath.toString().contains(CUSTOM_ENDPOINT_RESOURCE_FILE)
-                        || sourcePath.toString().contains(CDI_BEAN_FILE)
-                        || sourcePath.toString().contains(POM_XML_FILE)
-                        || sourcePath.toString().contains(DEPLOYMENT_SCRIPT_FILE)) {
-
-                    try {
-                        File outputFile = new File(destinationPath.toString());
-                        File inputfile = new File(sourcePath.toString());
-                        String inputContent = FileUtils.readFileToString(inputfile, StandardCharsets.UTF_8.name());
-
-                        if (sourcePath.toString().contains(POM_XML_FILE)) {
-                            String outputContent = inputContent
-                                    .replace("__MODULE_ARTIFACT_ID__", moduleCode)
-                                    .replace("__MODULE_VERSION__", MODULE_VERSION)
-                                    .replace("__MEVEO_VERSION__", Version.appVersion)
-                                    .replace("<!--REPOSITORY_LIST-->", repositoriesTagContent);
-                            FileUtils.write(outputFile, outputContent, StandardCharsets.UTF_8);
-                        } else {
-                            FileUtils.write(outputFile, inputContent, StandardCharsets.UTF_8);
-                        }
-
-                        if (sourcePath.toString().contains(DEPLOYMENT_SCRIPT_FILE)) {
-                            String wildflyPath = System.getProperty("jboss.home.dir");
-                            String outputContent = inputContent
-                                    .replace("__MODULE_CODE__", moduleCode)
-                                    .replace("__WILDFLY_PATH__", wildflyPath);
-                            FileUtils.write(outputFile, outputContent, StandardCharsets.UTF_8);
-                        }
-
-                        filesToCommit.add(outputFile);
-                    } catch (Exception e) {
-                        throw new BusinessException("Failed creating file." + e.getMessage());
-                    }
+    private List<File> renderTemplateFiles(String moduleCode, TemplateCache.Snapshot templateSnapshot,
+            File moduleWARDirectory, String repositoriesTagContent, boolean benchmarked, SourceManifest sourceManifest)
+            throws BusinessException {
+        Map<String, String> placeholderValues = new HashMap<>();
+        placeholderValues.put(TemplateStage.MODULE_ARTIFACT_ID, moduleCode);
+        placeholderValues.put(TemplateStage.MODULE_VERSION, MODULE_VERSION);
+        placeholderValues.put(TemplateStage.MEVEO_VERSION, Version.appVersion);
+        placeholderValues.put(TemplateStage.REPOSITORY_LIST, repositoriesTagContent);
+        placeholderValues.put(TemplateStage.MODULE_CODE, moduleCode);
+        placeholderValues.put(TemplateStage.WILDFLY_PATH, System.getProperty("jboss.home.dir"));
+
+        List<File> templateFiles = new ArrayList<>();
+        try {
+            TemplateStage templateStage = TemplateStage.load(templateSnapshot.getPath(), templateSnapshot.getCommitId());
+            LOG.info("Rendering templates of commit: {}", templateStage.getCommitId());
+            for (GeneratedFile renderedFile : templateStage.render(placeholderValues)) {
+                File outputFile = new File(moduleWARDirectory, renderedFile.getPath());
+                String content = renderedFile.getContent();
+                if (benchmarked && POM_XML_FILE.equals(renderedFile.getPath())) {
+                    content = BenchmarkGenerator.addProfile(content);
                 }
-
+                sourceManifest.write(outputFile.toPath(), content);
+                templateFiles.add(outputFile);
             }
-
-        } catch (IOException ioe) {
-            throw new BusinessException(ioe);
+        } catch (IOException e) {
+            throw new BusinessException("Failed creating file." + e.getMessage());
         }
-
-        return filesToCommit;
+        return templateFiles;
     }
 
     private void label(String labelString, Object... params) {
@@ -1,19 +1,28 @@
 package org.meveo.enterpriseapp;
 
-import java.io.*;
-import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.UnaryOperator;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 
 import org.meveo.admin.exception.BusinessException;
+import org.meveo.api.persistence.CrossStorageApi;
 import org.meveo.commons.utils.ParamBean;
 import org.meveo.commons.utils.ParamBeanFactory;
 import org.meveo.model.customEntities.CustomEntityInstance;
 import org.meveo.model.customEntities.JavaEnterpriseApp;
 import org.meveo.model.persistence.CEIUtils;
+import org.meveo.security.MeveoUser;
 import org.meveo.service.script.Script;
+import org.meveo.service.storage.RepositoryService;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,32 +30,86 @@ import org.slf4j.LoggerFactory;
 public class ModuleWarInstaller extends Script {
     private static final Logger LOG = LoggerFactory.getLogger(ModuleWarInstaller.class);
 
-    private static final String LINE_SEPARATOR = System.lineSeparator();
     private static final String PATH_SEPARATORS = "/\\";
     private static final String DIVIDER = StringUtils.repeat("-", 15);
+    private static final String MODULE_CODES_PARAMETER = "moduleCodes";
+    static final String INSTALL_MODE_PROPERTY = "enterpriseapp.install.mode";
+    static final String INSTALL_MODE_REPACK = "repack";
+    static final String INSTALL_MODE_INPLACE = "inplace";
+    static final String INSTALL_MODE_STANDALONE = "standalone";
+    private static final String COMPACTION_RATIO_PROPERTY = "enterpriseapp.install.compactionRatio";
+    private static final String DEFAULT_COMPACTION_RATIO = "0.5";
+    private static final String INSTALL_JOB_TYPE = "install";
+    private static final String SCRIPT_TIMEOUT_PROPERTY = "enterpriseapp.install.scriptTimeout";
+    private static final String DEFAULT_SCRIPT_TIMEOUT_SECONDS = "600";
+    private static final int SCRIPT_OUTPUT_TAIL_LINES = 50;
+    private static final String DEPLOY_TIMEOUT_PROPERTY = "enterpriseapp.install.deployTimeout";
+    private static final String DEFAULT_DEPLOY_TIMEOUT_SECONDS = "120";
+    private static final long DEPLOY_POLL_MILLIS = 250;
 
     private final ParamBeanFactory paramBeanFactory = getCDIBean(ParamBeanFactory.class);
     private final ParamBean config = paramBeanFactory.getInstance();
+    private final CrossStorageApi crossStorageApi = getCDIBean(CrossStorageApi.class);
+    private final RepositoryService repositoryService = getCDIBean(RepositoryService.class);
 
     @Override
     public void execute(Map<String, Object> parameters) throws BusinessException {
         label("ModuleWarInstaller.execute() - START");
-        CustomEntityInstance cei = (CustomEntityInstance) parameters.get(CONTEXT_ENTITY);
+        List<JavaEnterpriseApp> javaEnterpriseApps = getJavaEnterpriseApps(parameters);
 
-        JavaEnterpriseApp javaEnterpriseApp = CEIUtils.ceiToPojo(cei, JavaEnterpriseApp.class);
-        String moduleCode = javaEnterpriseApp.getCode();
-
-        if (StringUtils.isEmpty(moduleCode)) {
+        if (javaEnterpriseApps.isEmpty()) {
             throw new BusinessException("No module code was provided.");
         }
 
-        LOG.info("Installing WAR for module: {}", moduleCode);
-
-        installModuleWAR(moduleCode);
+        MeveoUser user = (MeveoUser) parameters.get(CONTEXT_CURRENT_USER);
+        ModuleJob job = new ModuleJob(INSTALL_JOB_TYPE, javaEnterpriseApps, crossStorageApi,
+                repositoryService.findDefaultRepository());
+        List<String> moduleCodes = job.getModuleCodes();
+        if (ModuleJobs.isAsync(parameters, config)) {
+            ModuleJob submittedJob = ModuleJobs.submit(job, user,
+                    moduleJob -> installModuleWARs(moduleCodes, moduleJob));
+            parameters.put(RESULT_GUI_MESSAGE, (submittedJob == job ? "Submitted" : "Merged with waiting")
+                    + " WAR installation of modules: " + moduleCodes);
+        } else {
+            String result = ModuleJobs.run(job, moduleJob -> installModuleWARs(moduleCodes, moduleJob));
+            parameters.put(RESULT_GUI_MESSAGE, result);
+        }
 
         LOG.info("ModuleWarInstaller.execute() - DONE");
     }
 
+    /*
+     * Modules come from the entity the action is run on, from the selected entities of a list action or
+     * from the comma separated moduleCodes parameter. Modules only given by code have no stored entity, the
+     * job progress is not recorded for them.
+     */
+    private List<JavaEnterpriseApp> getJavaEnterpriseApps(Map<String, Object> parameters) throws BusinessException {
+        Map<String, JavaEnterpriseApp> javaEnterpriseApps = new LinkedHashMap<>();
+        Object contextEntity = parameters.get(CONTEXT_ENTITY);
+        Collection<?> entities = contextEntity instanceof Collection
+                ? (Collection<?>) contextEntity
+                : Collections.singletonList(contextEntity);
+        for (Object entity : entities) {
+            if (entity instanceof CustomEntityInstance) {
+                JavaEnterpriseApp javaEnterpriseApp = CEIUtils.ceiToPojo((CustomEntityInstance) entity,
+                        JavaEnterpriseApp.class);
+                if (StringUtils.isEmpty(javaEnterpriseApp.getCode())) {
+                    throw new BusinessException("No module code was provided.");
+                }
+                javaEnterpriseApps.putIfAbsent(javaEnterpriseApp.getCode(), javaEnterpriseApp);
+            }
+        }
+        Object moduleCodesParameter = parameters.get(MODULE_CODES_PARAMETER);
+        if (moduleCodesParameter != null) {
+            for (String moduleCode : StringUtils.split(moduleCodesParameter.toString(), ", ")) {
+                JavaEnterpriseApp javaEnterpriseApp = new JavaEnterpriseApp();
+                javaEnterpriseApp.setCode(moduleCode);
+                javaEnterpriseApps.putIfAbsent(moduleCode, javaEnterpriseApp);
+            }
+        }
+        return new ArrayList<>(javaEnterpriseApps.values());
+    }
+
     private String normalizeDirectory(String directoryPath) {
         if (StringUtils.isBlank(directoryPath)) {
             throw new RuntimeException("Directory path must not be empty.");
@@ -69,17 +132,6 @@ public class ModuleWarInstaller extends Script {
         return String.join(File.separator, dataPath, providerCode, "git", moduleCode + "-war");
     }
 
-    private String buildModuleXML(String moduleCode) {
-        return String.join(LINE_SEPARATOR, LINE_SEPARATOR,
-                "  <module id=\"war.meveo." + moduleCode + "\">",
-                "    <web>",
-                "      <web-uri>" + moduleCode + ".war</web-uri>",
-                "      <context-root>/" + moduleCode + "</context-root>",
-                "    </web>",
-                "  </module>",
-                "</application>");
-    }
-
     private void checkDirectoryPermissions(File directory) {
         String directoryPath = directory.getPath();
         if (!directory.exists() || !directory.isDirectory()) {
@@ -124,7 +176,12 @@ public class ModuleWarInstaller extends Script {
         LOG.info("Successfully initialized temp folder: {}", tempFolder.getAbsolutePath());
     }
 
-    private void installModuleWAR(String moduleCode) throws BusinessException {
+    /*
+     * Merge the WARs of all the modules into meveo.ear in a single pass, then redeploy it once. In standalone
+     * mode each module WAR is deployed on its own next to meveo.ear instead.
+     */
+    private String installModuleWARs(List<String> moduleCodes, ModuleJob job) throws BusinessException {
+        job.phase("prepare");
         String providerCode = normalizeDirectory(config.getProperty("provider.rootDir", "default"));
         String meveoDataPath = normalizePath(config.getProperty("providers.rootDir", "./meveodata"));
         LOG.info("Meveo data path: {}", meveoDataPath);
@@ -132,106 +189,276 @@ public class ModuleWarInstaller extends Script {
         String wildflyPath = initializeWildflyDirectory();
         initializeTempFolder(wildflyPath);
 
-        String mavenPath = buildMavenPath(moduleCode, meveoDataPath, providerCode);
-        prepareMeveoEARFile(moduleCode, wildflyPath, mavenPath);
+        Map<String, File> moduleWARs = new LinkedHashMap<>();
+        List<String> mavenPaths = new ArrayList<>();
+        for (String moduleCode : moduleCodes) {
+            String mavenPath = buildMavenPath(moduleCode, meveoDataPath, providerCode);
+            mavenPaths.add(mavenPath);
+            File warFile = findWARFile(moduleCode, mavenPath);
+            moduleWARs.put(warFile.getName(), warFile);
+            job.count("war.files", 1);
+            job.count("war.bytes", warFile.length());
+        }
+        ApplicationDescriptorPatcher descriptorUpdater = new ApplicationDescriptorPatcher();
+        moduleCodes.forEach(descriptorUpdater::add);
+
+        String installMode = config.getProperty(INSTALL_MODE_PROPERTY, INSTALL_MODE_REPACK);
+        LOG.info("Install mode: {}", installMode);
+        if (INSTALL_MODE_STANDALONE.equalsIgnoreCase(installMode)) {
+            job.phase("ear");
+            boolean earRedeployed = removeModulesFromEARFile(wildflyPath, moduleCodes, moduleWARs.keySet());
+            job.phase("deploy");
+            for (File warFile : moduleWARs.values()) {
+                deployStandaloneWARFile(wildflyPath, warFile, !earRedeployed);
+                job.count("deploy.bytes", warFile.length());
+            }
+            if (earRedeployed) {
+                return "Removed modules: " + moduleCodes + " from meveo.ear, their standalone WARs are deployed"
+                        + " once meveo.ear is redeployed";
+            }
+            return "Deployed standalone WARs of modules: " + moduleCodes;
+        }
+
+        // the deployment scripts of all modules move the same EAR into place, running one of them is enough
+        File deploymentScript = findDeploymentScript(mavenPaths);
+        if (deploymentScript == null && !INSTALL_MODE_INPLACE.equalsIgnoreCase(installMode)) {
+            throw new BusinessException("No deployment script found for modules: " + moduleCodes);
+        }
+        job.phase("ear");
+        return BuildScheduler.withEarLock(() -> {
+            if (INSTALL_MODE_INPLACE.equalsIgnoreCase(installMode)) {
+                try {
+                    updateMeveoEARFile(wildflyPath, descriptorUpdater, moduleWARs, job);
+                    return "Updated meveo.ear in place with WARs of modules: " + moduleCodes;
+                } catch (ZipException e) {
+                    if (deploymentScript == null) {
+                        throw new BusinessException("Failed to update EAR file in place and no deployment script"
+                                + " found for modules: " + moduleCodes + " to repack it", e);
+                    }
+                    // thrown before anything was written to the EAR, repacking it is safe
+                    LOG.warn("Failed to update EAR file in place, falling back to repacking it: {}",
+                            e.getMessage());
+                }
+            }
+            prepareMeveoEARFile(wildflyPath, descriptorUpdater, moduleWARs, job);
+            job.phase("deploy");
+            runDeploymentScript(deploymentScript);
+            return "Deployed meveo.ear with WARs of modules: " + moduleCodes;
+        });
+    }
+
+    /*
+     * Deployment script of the first module, in installation order, whose build directory has one
+     */
+    private File findDeploymentScript(List<String> mavenPaths) {
+        for (String mavenPath : mavenPaths) {
+            File deploymentScript = new File(String.join(File.separator, mavenPath, "moduledeployment.sh"));
+            if (deploymentScript.isFile()) {
+                return deploymentScript;
+            }
+            LOG.warn("Deployment script: {} not found", deploymentScript.getAbsolutePath());
+        }
+        return null;
+    }
 
-        String deploymentScriptPath = String.join(File.separator, mavenPath, "moduledeployment.sh");
-        File deploymentScript = new File(deploymentScriptPath);
+    private void runDeploymentScript(File deploymentScript) throws BusinessException {
+        String deploymentScriptPath = deploymentScript.getPath();
         LOG.info("Deployment script file: {}", deploymentScript.getAbsolutePath());
         boolean scriptExecutable = deploymentScript.setExecutable(true, false);
         if (!scriptExecutable) {
             throw new BusinessException("Failed to set deployment script: " + deploymentScriptPath + " as executable");
         }
 
-        try {
-            File scriptDirectory = deploymentScript.getParentFile();
-            Process process = Runtime.getRuntime().exec(deploymentScriptPath, null, scriptDirectory);
-            LOG.info("RUNNING SCRIPT: {}", deploymentScriptPath);
-            int exitCode = process.waitFor();
-            LOG.info("SCRIPT EXIT CODE: {}", exitCode);
-        } catch (IOException | InterruptedException e) {
-            throw new BusinessException("Failed to execute module deployment script.", e);
-        }
+        long timeoutSeconds = Long.parseLong(config.getProperty(SCRIPT_TIMEOUT_PROPERTY,
+                DEFAULT_SCRIPT_TIMEOUT_SECONDS));
+        ProcessSupervisor supervisor = new ProcessSupervisor("moduledeployment", timeoutSeconds * 1000,
+                SCRIPT_OUTPUT_TAIL_LINES);
+        supervisor.run(Collections.singletonList(deploymentScriptPath), deploymentScript.getParentFile());
     }
 
-    private void prepareMeveoEARFile(String moduleCode, String wildflyPath, String mavenPath)
-            throws BusinessException {
+    private File findEARFile(String wildflyPath) throws BusinessException {
         String earFilePath = String.join(File.separator, wildflyPath, "standalone", "deployments", "meveo.ear");
         File earFile = new File(earFilePath);
         if (!earFile.exists()) {
             throw new BusinessException("Meveo EAR file: " + earFilePath + ", not found");
         }
         LOG.info("Current EAR file path: {}", earFile.getAbsolutePath());
+        return earFile;
+    }
 
+    private File findWARFile(String moduleCode, String mavenPath) throws BusinessException {
         String warFilePath = String.join(File.separator, mavenPath, "target", moduleCode + ".war");
         File warFile = new File(warFilePath);
         if (!warFile.exists()) {
             throw new BusinessException("Module war file: " + warFilePath + ", not found\"");
         }
         LOG.info("Module WAR file path: {}", warFile.getAbsolutePath());
+        return warFile;
+    }
+
+    private void prepareMeveoEARFile(String wildflyPath, UnaryOperator<byte[]> descriptorUpdater,
+            Map<String, File> moduleWARs, ModuleJob job) throws BusinessException {
+        File earFile = findEARFile(wildflyPath);
 
         String outputFilePath = String.join(File.separator, wildflyPath, "standalone", "databackup", "meveo.ear");
         File outputFile = new File(outputFilePath);
         LOG.info("Updated EAR file path: {}", outputFile.getAbsolutePath());
 
         try {
-            String warFileName = warFile.getName();
-            FileInputStream earFileInput = new FileInputStream(earFile);
-            FileOutputStream earFileOutput = new FileOutputStream(outputFile);
-            ZipOutputStream earZipOutput = new ZipOutputStream(earFileOutput);
-            ZipInputStream earZipInput = new ZipInputStream(earFileInput);
-            ByteArrayOutputStream updatedXmlContent = new ByteArrayOutputStream();
-            byte[] buffer = new byte[102400];
-            int bytesRead;
-            ZipEntry entry;
-            while ((entry = earZipInput.getNextEntry()) != null) {
-                String entryName = entry.getName();
-                if (!entry.getName().equals("META-INF/application.xml")) {
-                    if (!entryName.equals(warFileName)) {
-                        earZipOutput.putNextEntry(new ZipEntry(entryName));
-
-                        while ((bytesRead = earZipInput.read(buffer)) != -1) {
-                            earZipOutput.write(buffer, 0, bytesRead);
-                        }
-                        earZipOutput.closeEntry();
-                    }
-                } else {
-                    ByteArrayOutputStream xmlBuffer = new ByteArrayOutputStream();
-                    while ((bytesRead = earZipInput.read(buffer)) > 0) {
-                        xmlBuffer.write(buffer, 0, bytesRead);
-                    }
-                    if (xmlBuffer.toString().contains(moduleCode)) {  // If moduleCode already exist
-                        updatedXmlContent.write(xmlBuffer.toString().getBytes());
-                    } else {
-                        String moduleXML = buildModuleXML(moduleCode);
-                        String xmlContent = xmlBuffer.toString().replaceAll("</application>", moduleXML);
-                        updatedXmlContent.write(xmlContent.getBytes());
-                    }
+            EarRepacker.repack(earFile, outputFile, descriptorUpdater, moduleWARs);
+            LOG.info("Successfully created: {}", outputFile.getAbsolutePath());
+            job.count("ear.bytesRead", earFile.length());
+            job.count("ear.bytesWritten", outputFile.length());
+        } catch (IOException e) {
+            throw new BusinessException("Encountered error while trying to prepare EAR file", e);
+        }
 
-                    earZipOutput.putNextEntry(new ZipEntry("META-INF/application.xml"));
-                    earZipOutput.write(updatedXmlContent.toByteArray());
-                    earZipOutput.closeEntry();
-                }
-                LOG.info("Successfully added: {}", entryName);
+    }
+
+    /*
+     * Replace application.xml and the module wars directly in the deployed EAR, then ask the deployment
+     * scanner to redeploy it. The EAR is compacted once replaced entries take too much space. A ZipException
+     * means the EAR could not be updated in place and was left untouched, any failure after the first write is a
+     * BusinessException.
+     */
+    private void updateMeveoEARFile(String wildflyPath, UnaryOperator<byte[]> descriptorUpdater,
+            Map<String, File> moduleWARs, ModuleJob job) throws BusinessException, ZipException {
+        File earFile = findEARFile(wildflyPath);
+
+        try {
+            long deadBytes = EarUpdater.update(earFile, descriptorUpdater, moduleWARs);
+            job.count("ear.deadBytes", deadBytes);
+            double compactionRatio = Double.parseDouble(config.getProperty(COMPACTION_RATIO_PROPERTY,
+                    DEFAULT_COMPACTION_RATIO));
+            if (deadBytes > earFile.length() * compactionRatio) {
+                compactEARFile(earFile, wildflyPath);
+                job.count("ear.compactions", 1);
             }
+            job.count("ear.bytes", earFile.length());
+            File deployMarker = new File(earFile.getParentFile(), earFile.getName() + ".dodeploy");
+            FileUtils.touch(deployMarker);
+            LOG.info("Successfully updated: {}, redeployment requested with: {}", earFile.getAbsolutePath(),
+                    deployMarker.getName());
+        } catch (ZipException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new BusinessException("Encountered error while trying to update EAR file", e);
+        }
+    }
+
+    private void compactEARFile(File earFile, String wildflyPath) throws IOException {
+        File compactedFile = new File(String.join(File.separator, wildflyPath, "standalone", "databackup",
+                "meveo.ear.compact"));
+        LOG.info("Compacting EAR file: {}", earFile.getAbsolutePath());
+        EarRepacker.repack(earFile, compactedFile, UnaryOperator.identity(), Collections.emptyMap());
+        Files.move(compactedFile.toPath(), earFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
 
-            FileInputStream warFileInput = new FileInputStream(warFilePath);
-            earZipOutput.putNextEntry(new ZipEntry(warFileName));
-            while ((bytesRead = warFileInput.read(buffer)) != -1) {
-                earZipOutput.write(buffer, 0, bytesRead);
+    /*
+     * Modules installed in meveo.ear before switching to standalone mode would clash with the standalone WAR
+     * on their context root, they are removed from the EAR once. The EAR redeployment is not awaited, it
+     * restarts the application running this script.
+     */
+    private boolean removeModulesFromEARFile(String wildflyPath, List<String> moduleCodes, Set<String> warEntryNames)
+            throws BusinessException {
+        File earFile = findEARFile(wildflyPath);
+        return BuildScheduler.withEarLock(() -> {
+            Map<String, File> removedEntries = new LinkedHashMap<>();
+            try (ZipFile earZip = new ZipFile(earFile)) {
+                for (String warEntryName : warEntryNames) {
+                    if (earZip.getEntry(warEntryName) != null) {
+                        removedEntries.put(warEntryName, null);
+                    }
+                }
+            } catch (IOException e) {
+                throw new BusinessException("Failed to read EAR file: " + earFile.getAbsolutePath(), e);
+            }
+            if (removedEntries.isEmpty()) {
+                return false;
             }
-            earZipOutput.closeEntry();
-            warFileInput.close();
 
-            earZipOutput.close();
-            earFileInput.close();
-            earFileOutput.close();
+            LOG.info("Removing modules: {} from: {}", removedEntries.keySet(), earFile.getAbsolutePath());
+            ApplicationDescriptorPatcher descriptorUpdater = new ApplicationDescriptorPatcher();
+            moduleCodes.forEach(descriptorUpdater::remove);
+            File outputFile = new File(String.join(File.separator, wildflyPath, "standalone", "databackup",
+                    "meveo.ear"));
+            try {
+                EarRepacker.repack(earFile, outputFile, descriptorUpdater, removedEntries);
+                Files.move(outputFile.toPath(), earFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                FileUtils.touch(new File(earFile.getParentFile(), earFile.getName() + ".dodeploy"));
+            } catch (IOException e) {
+                throw new BusinessException("Failed to remove modules from EAR file: " + earFile.getAbsolutePath(),
+                        e);
+            }
+            return true;
+        });
+    }
 
-            LOG.info("Successfully created: {}", warFilePath);
+    /*
+     * Copy the WAR next to its final name then rename it, so the deployment scanner never sees a partial file
+     */
+    private void deployStandaloneWARFile(String wildflyPath, File warFile, boolean await) throws BusinessException {
+        File deploymentsDirectory = new File(String.join(File.separator, wildflyPath, "standalone", "deployments"));
+        File deployedFile = new File(deploymentsDirectory, warFile.getName());
+        File temporaryFile = new File(deploymentsDirectory, warFile.getName() + ".tmp");
+        try {
+            Files.deleteIfExists(new File(deploymentsDirectory, warFile.getName() + ".failed").toPath());
+            Files.copy(warFile.toPath(), temporaryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            long startMillis = System.currentTimeMillis();
+            try {
+                Files.move(temporaryFile.toPath(), deployedFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile.toPath(), deployedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            FileUtils.touch(new File(deploymentsDirectory, warFile.getName() + ".dodeploy"));
+            LOG.info("Deploying: {}", deployedFile.getAbsolutePath());
+            if (await) {
+                awaitDeployment(deployedFile, startMillis);
+            }
         } catch (IOException e) {
-            throw new BusinessException("Encountered error while trying to prepare EAR file", e);
+            throw new BusinessException("Failed to deploy: " + deployedFile.getAbsolutePath(), e);
         }
+    }
 
+    /*
+     * Follow the marker files of the deployment scanner until the deployment succeeds or fails
+     */
+    private void awaitDeployment(File deployedFile, long startMillis) throws BusinessException {
+        long timeoutMillis = Long.parseLong(config.getProperty(DEPLOY_TIMEOUT_PROPERTY,
+                DEFAULT_DEPLOY_TIMEOUT_SECONDS)) * 1000;
+        File directory = deployedFile.getParentFile();
+        File deployedMarker = new File(directory, deployedFile.getName() + ".deployed");
+        File failedMarker = new File(directory, deployedFile.getName() + ".failed");
+        File pendingMarker = new File(directory, deployedFile.getName() + ".dodeploy");
+        File deployingMarker = new File(directory, deployedFile.getName() + ".isdeploying");
+        while (System.currentTimeMillis() - startMillis < timeoutMillis) {
+            if (failedMarker.exists()) {
+                String reason;
+                try {
+                    reason = new String(Files.readAllBytes(failedMarker.toPath()), StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    reason = e.getMessage();
+                }
+                throw new BusinessException("Deployment of: " + deployedFile.getName() + " failed: " + reason);
+            }
+            if (deployedMarker.exists() && deployedMarker.lastModified() >= startMillis - 1000
+                    && !pendingMarker.exists() && !deployingMarker.exists()) {
+                long deployMillis = System.currentTimeMillis() - startMillis;
+                PipelineMetrics.record("deploy." + deployedFile.getName(), deployMillis);
+                LOG.info("Deployed: {} in {}ms", deployedFile.getName(), deployMillis);
+                return;
+            }
+            try {
+                Thread.sleep(DEPLOY_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BusinessException("Interrupted while waiting for deployment of: "
+                        + deployedFile.getName());
+            }
+        }
+        throw new BusinessException("Deployment of: " + deployedFile.getName() + " did not complete within "
+                + timeoutMillis + "ms");
     }
 
     private void label(String labelString, Object... params) {
@@ -0,0 +1,83 @@
+package org.meveo.enterpriseapp;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * In-memory counters, gauges and timers of the generation and install pipeline.
+ */
+public final class PipelineMetrics {
+
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+
+    private PipelineMetrics() {
+    }
+
+    public static void increment(String name) {
+        COUNTERS.computeIfAbsent(name, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * @param name   name of the counter
+     * @param amount amount to add, such as a number of files or bytes
+     */
+    public static void add(String name, long amount) {
+        COUNTERS.computeIfAbsent(name, key -> new LongAdder()).add(amount);
+    }
+
+    /**
+     * @param name  name of the gauge, registering it again replaces the value supplier
+     * @param value supplier of the current value
+     */
+    public static void gauge(String name, LongSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    /**
+     * @param name   name of the timer
+     * @param millis duration to record
+     */
+    public static void record(String name, long millis) {
+        TIMERS.computeIfAbsent(name, key -> new Timer()).record(millis);
+    }
+
+    /**
+     * @return the current values, sorted by name. Timers are reported with their count, total, mean and max
+     *         duration in milliseconds.
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new TreeMap<>();
+        COUNTERS.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        GAUGES.forEach((name, gauge) -> snapshot.put(name, gauge.getAsLong()));
+        TIMERS.forEach((name, timer) -> snapshot.put(name, timer.snapshot()));
+        return snapshot;
+    }
+
+    private static class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private void record(long millis) {
+            count.increment();
+            total.add(millis);
+            max.accumulate(millis);
+        }
+
+        private Map<String, Long> snapshot() {
+            long currentCount = count.sum();
+            long currentTotal = total.sum();
+            Map<String, Long> snapshot = new LinkedHashMap<>();
+            snapshot.put("count", currentCount);
+            snapshot.put("totalMillis", currentTotal);
+            snapshot.put("meanMillis", currentCount == 0 ? 0 : currentTotal / currentCount);
+            snapshot.put("maxMillis", max.get());
+            return snapshot;
+        }
+    }
+}
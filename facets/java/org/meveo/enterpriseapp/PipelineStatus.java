@@ -0,0 +1,36 @@
+package org.meveo.enterpriseapp;
+
+import java.util.*;
+
+import org.meveo.admin.exception.BusinessException;
+import org.meveo.service.script.Script;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Report the pipeline metrics: job and scheduler queue depths, wait times, durations, and the phase timings
+ * and counters of the jobs.
+ */
+public class PipelineStatus extends Script {
+    private static final Logger LOG = LoggerFactory.getLogger(PipelineStatus.class);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Override
+    public void execute(Map<String, Object> parameters) throws BusinessException {
+        Map<String, Object> metrics = PipelineMetrics.snapshot();
+        String status;
+        try {
+            status = OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(metrics);
+        } catch (JsonProcessingException e) {
+            throw new BusinessException("Failed to serialize pipeline metrics", e);
+        }
+        LOG.info("Pipeline status: {}", status);
+        parameters.put(RESULT_VALUE, metrics);
+        parameters.put(RESULT_GUI_MESSAGE, status);
+    }
+}
@@ -0,0 +1,166 @@
+package org.meveo.enterpriseapp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.meveo.admin.exception.BusinessException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs an external process with its output streamed to the log.
+ * <p>
+ * stdout and stderr are drained by their own threads so a verbose process never blocks on a full pipe, the
+ * last lines are kept to explain a failure. A process running longer than the timeout is killed along with
+ * its descendants. The duration of every run is recorded in {@link PipelineMetrics} as process.[name].
+ */
+public class ProcessSupervisor {
+    private static final Logger LOG = LoggerFactory.getLogger(ProcessSupervisor.class);
+
+    private static final long DESTROY_GRACE_MILLIS = 5000;
+    private static final long DRAIN_JOIN_MILLIS = 5000;
+
+    private final String name;
+    private final long timeoutMillis;
+    private final int tailLines;
+    private final Deque<String> tail = new ArrayDeque<>();
+
+    /**
+     * @param name          name of the process, used in logs and metrics
+     * @param timeoutMillis maximum run time
+     * @param tailLines     number of output lines reported on failure
+     */
+    public ProcessSupervisor(String name, long timeoutMillis, int tailLines) {
+        this.name = name;
+        this.timeoutMillis = timeoutMillis;
+        this.tailLines = tailLines;
+    }
+
+    /**
+     * Run a command and wait for it to complete
+     *
+     * @param command   command and arguments
+     * @param directory working directory
+     * @throws BusinessException if the process cannot start, times out or exits with a non-zero code
+     */
+    public void run(List<String> command, File directory) throws BusinessException {
+        LOG.info("Running {}: {} in: {}", name, command, directory);
+        long start = System.nanoTime();
+        Process process;
+        try {
+            process = new ProcessBuilder(command).directory(directory).start();
+        } catch (IOException e) {
+            throw new BusinessException("Failed to start " + name + ": " + command, e);
+        }
+        try {
+            process.getOutputStream().close();
+        } catch (IOException e) {
+            LOG.debug("Failed to close stdin of {}: {}", name, e.getMessage());
+        }
+        Thread stdoutDrain = drain(process.getInputStream(), "stdout", false);
+        Thread stderrDrain = drain(process.getErrorStream(), "stderr", true);
+
+        try {
+            boolean exited;
+            try {
+                exited = process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                destroyTree(process);
+                Thread.currentThread().interrupt();
+                throw new BusinessException("Interrupted while running " + name
+                        + getTail(stdoutDrain, stderrDrain), e);
+            }
+            if (!exited) {
+                destroyTree(process);
+                PipelineMetrics.increment("process." + name + ".timeouts");
+                throw new BusinessException(name + " did not complete within " + timeoutMillis + "ms and was killed"
+                        + getTail(stdoutDrain, stderrDrain));
+            }
+            int exitCode = process.exitValue();
+            LOG.info("{} exit code: {}", name, exitCode);
+            if (exitCode != 0) {
+                PipelineMetrics.increment("process." + name + ".failures");
+                throw new BusinessException(name + " failed with exit code: " + exitCode
+                        + getTail(stdoutDrain, stderrDrain));
+            }
+        } finally {
+            long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            PipelineMetrics.record("process." + name, durationMillis);
+            LOG.info("{} ran for {}ms", name, durationMillis);
+        }
+    }
+
+    private Thread drain(InputStream stream, String streamName, boolean error) {
+        Thread drainThread = new Thread(() -> {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, Charset.defaultCharset()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (error) {
+                        LOG.warn("[{}] {}", name, line);
+                    } else {
+                        LOG.info("[{}] {}", name, line);
+                    }
+                    synchronized (tail) {
+                        tail.addLast(error ? "[stderr] " + line : line);
+                        if (tail.size() > tailLines) {
+                            tail.removeFirst();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                LOG.debug("Stopped reading {} of {}: {}", streamName, name, e.getMessage());
+            }
+        }, name + "-" + streamName);
+        drainThread.setDaemon(true);
+        drainThread.start();
+        return drainThread;
+    }
+
+    /*
+     * Wait for the remaining output once the process is gone, then format the last lines
+     */
+    private String getTail(Thread... drainThreads) {
+        for (Thread drainThread : drainThreads) {
+            try {
+                drainThread.join(DRAIN_JOIN_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        synchronized (tail) {
+            if (tail.isEmpty()) {
+                return "";
+            }
+            return ", last output:" + System.lineSeparator() + String.join(System.lineSeparator(), tail);
+        }
+    }
+
+    /*
+     * Descendants are listed first, they are reparented and can no longer be found once the process is gone
+     */
+    private void destroyTree(Process process) {
+        LOG.warn("Killing {} and its descendants", name);
+        List<ProcessHandle> descendants = process.descendants().collect(Collectors.toList());
+        descendants.forEach(ProcessHandle::destroy);
+        process.destroy();
+        try {
+            if (process.waitFor(DESTROY_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+                descendants.stream().filter(ProcessHandle::isAlive).forEach(ProcessHandle::destroyForcibly);
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        descendants.forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+}
@@ -0,0 +1,326 @@
+package org.meveo.enterpriseapp;
+
+import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Content-hash manifest of the files written into a module WAR repository.
+ * <p>
+ * Every file copied or generated during a run goes through {@link #copy(Path, Path)} or
+ * {@link #write(Path, String)}, which only touch the disk when the content hash differs from the one
+ * recorded by the previous run. Files recorded previously but not produced again are removed by
+ * {@link #removeStale()}.
+ * <p>
+ * Files of the repository can also change on disk, edited by hand or by a pull. The size and modification time
+ * of every file are recorded with its hash, a file whose size or modification time differs is hashed again and
+ * written when its content drifted.
+ * <p>
+ * A generated file can also be recorded with the hash of its generation inputs. When the inputs hash matches
+ * the previous run, {@link #isReusable(Path, String)} tells the generator it can skip the generation and
+ * {@link #reuse(Path, String)} keeps the file as it is.
+ */
+public class SourceManifest {
+    private static final Logger LOG = LoggerFactory.getLogger(SourceManifest.class);
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 65536;
+    private static final String INPUT_HASH_PREFIX = "input:";
+    private static final String STAMP_PREFIX = "stamp:";
+    private static final String UNKNOWN_HASH = "";
+
+    private final Path rootPath;
+    private final Path manifestPath;
+    private final Map<String, String> previousHashes;
+    private final Map<String, String> previousInputHashes;
+    private final Map<String, String> previousStamps;
+    private final Map<String, String> currentHashes = new TreeMap<>();
+    private final Map<String, String> currentInputHashes = new TreeMap<>();
+    private final Map<String, String> currentStamps = new TreeMap<>();
+    private final Set<File> changedFiles = new LinkedHashSet<>();
+    private final List<File> deletedFiles = new ArrayList<>();
+
+    private SourceManifest(Path rootPath, Path manifestPath, Map<String, String> previousHashes,
+            Map<String, String> previousInputHashes, Map<String, String> previousStamps) {
+        this.rootPath = rootPath.toAbsolutePath().normalize();
+        this.manifestPath = manifestPath;
+        this.previousHashes = previousHashes;
+        this.previousInputHashes = previousInputHashes;
+        this.previousStamps = previousStamps;
+    }
+
+    /*
+     * Load the manifest of the previous run, every file is considered changed when it does not exist
+     */
+    public static SourceManifest load(Path rootPath, Path manifestPath) throws IOException {
+        Map<String, String> hashes = new TreeMap<>();
+        Map<String, String> inputHashes = new TreeMap<>();
+        Map<String, String> stamps = new TreeMap<>();
+        if (Files.isRegularFile(manifestPath)) {
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(manifestPath, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+            for (String name : properties.stringPropertyNames()) {
+                if (name.startsWith(INPUT_HASH_PREFIX)) {
+                    inputHashes.put(name.substring(INPUT_HASH_PREFIX.length()), properties.getProperty(name));
+                } else if (name.startsWith(STAMP_PREFIX)) {
+                    stamps.put(name.substring(STAMP_PREFIX.length()), properties.getProperty(name));
+                } else {
+                    hashes.put(name, properties.getProperty(name));
+                }
+            }
+        }
+        LOG.info("Loaded {} manifest entries, {} with inputs hash, from: {}", hashes.size(), inputHashes.size(),
+                manifestPath);
+        return new SourceManifest(rootPath, manifestPath, hashes, inputHashes, stamps);
+    }
+
+    /*
+     * Start from an empty manifest, every file will be written again
+     */
+    public static SourceManifest empty(Path rootPath, Path manifestPath) {
+        return new SourceManifest(rootPath, manifestPath, new TreeMap<>(), new TreeMap<>(), new TreeMap<>());
+    }
+
+    /*
+     * Start from an empty manifest whose previous run is unknown: every file will be written again, and the
+     * files found under the synced directory that are not produced again are removed as stale
+     */
+    public static SourceManifest resync(Path rootPath, Path manifestPath, Path syncedPath) throws IOException {
+        Map<String, String> hashes = new TreeMap<>();
+        SourceManifest sourceManifest = new SourceManifest(rootPath, manifestPath, hashes, new TreeMap<>(),
+                new TreeMap<>());
+        if (Files.isDirectory(syncedPath)) {
+            try (Stream<Path> paths = Files.walk(syncedPath)) {
+                paths.filter(Files::isRegularFile)
+                     .forEach(path -> hashes.put(sourceManifest.relativize(path), UNKNOWN_HASH));
+            }
+        }
+        LOG.info("No manifest at: {}, resyncing {} files of: {}", manifestPath, hashes.size(), syncedPath);
+        return sourceManifest;
+    }
+
+    /**
+     * Copy a file into the repository when its content changed since the previous run
+     *
+     * @param sourcePath      file to copy
+     * @param destinationPath destination inside the repository
+     * @return true if the destination was written
+     */
+    public boolean copy(Path sourcePath, Path destinationPath) throws IOException {
+        String hash = hash(sourcePath);
+        if (isUnchanged(destinationPath, hash)) {
+            return false;
+        }
+        Files.createDirectories(destinationPath.getParent());
+        Files.copy(sourcePath, destinationPath, REPLACE_EXISTING, COPY_ATTRIBUTES);
+        currentStamps.put(relativize(destinationPath), stamp(destinationPath));
+        changedFiles.add(destinationPath.toFile());
+        return true;
+    }
+
+    /**
+     * Write generated content into the repository when it changed since the previous run
+     *
+     * @param destinationPath destination inside the repository
+     * @param content         file content
+     * @return true if the destination was written
+     */
+    public boolean write(Path destinationPath, String content) throws IOException {
+        return write(destinationPath, content, null);
+    }
+
+    /**
+     * Write generated content into the repository when it changed since the previous run
+     *
+     * @param destinationPath destination inside the repository
+     * @param content         file content
+     * @param inputHash       hash of the generation inputs of the content, null if it is not known
+     * @return true if the destination was written
+     */
+    public boolean write(Path destinationPath, String content, String inputHash) throws IOException {
+        if (inputHash != null) {
+            currentInputHashes.put(relativize(destinationPath), inputHash);
+        }
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        String hash = hash(bytes);
+        if (isUnchanged(destinationPath, hash)) {
+            return false;
+        }
+        Files.createDirectories(destinationPath.getParent());
+        Files.write(destinationPath, bytes);
+        currentStamps.put(relativize(destinationPath), stamp(destinationPath));
+        changedFiles.add(destinationPath.toFile());
+        return true;
+    }
+
+    /**
+     * Only reads the manifest of the previous run, so generation threads can call it concurrently
+     *
+     * @param destinationPath generated file inside the repository
+     * @param inputHash       hash of the generation inputs of the file
+     * @return true if the previous run generated the file from the same inputs and it is still there unchanged
+     */
+    public boolean isReusable(Path destinationPath, String inputHash) throws IOException {
+        String relativePath = relativize(destinationPath);
+        String previousHash = previousHashes.get(relativePath);
+        return inputHash.equals(previousInputHashes.get(relativePath)) && previousHash != null
+                && isOnDisk(destinationPath, previousHash, previousStamps.get(relativePath));
+    }
+
+    /**
+     * Keep a reusable generated file as produced by this run, without generating or writing it
+     *
+     * @param destinationPath generated file inside the repository
+     * @param inputHash       hash of the generation inputs of the file
+     */
+    public void reuse(Path destinationPath, String inputHash) throws IOException {
+        String relativePath = relativize(destinationPath);
+        currentHashes.put(relativePath, previousHashes.get(relativePath));
+        currentInputHashes.put(relativePath, inputHash);
+        currentStamps.put(relativePath, stamp(destinationPath));
+    }
+
+    /**
+     * @param relativePath path relative to the repository
+     * @return the path inside the repository
+     */
+    public Path resolve(String relativePath) {
+        return rootPath.resolve(relativePath);
+    }
+
+    /**
+     * Delete the files recorded by the previous run that were not produced by this run
+     *
+     * @return the deleted files
+     */
+    public List<File> removeStale() throws IOException {
+        for (String relativePath : previousHashes.keySet()) {
+            if (!currentHashes.containsKey(relativePath)) {
+                Path stalePath = rootPath.resolve(relativePath);
+                if (Files.deleteIfExists(stalePath)) {
+                    LOG.info("Removed stale file: {}", stalePath);
+                }
+                deletedFiles.add(stalePath.toFile());
+            }
+        }
+        return deletedFiles;
+    }
+
+    public void save() throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(currentHashes);
+        currentInputHashes.forEach((relativePath, inputHash) -> {
+            if (currentHashes.containsKey(relativePath)) {
+                properties.put(INPUT_HASH_PREFIX + relativePath, inputHash);
+            }
+        });
+        currentStamps.forEach((relativePath, stamp) -> {
+            if (currentHashes.containsKey(relativePath)) {
+                properties.put(STAMP_PREFIX + relativePath, stamp);
+            }
+        });
+        Files.createDirectories(manifestPath.getParent());
+        try (Writer writer = Files.newBufferedWriter(manifestPath, StandardCharsets.UTF_8)) {
+            properties.store(writer, "Module WAR source manifest");
+        }
+    }
+
+    /*
+     * Hashes of the files produced by this run, keyed by path relative to the repository
+     */
+    public Map<String, String> getHashes() {
+        return Collections.unmodifiableMap(currentHashes);
+    }
+
+    public List<File> getChangedFiles() {
+        return new ArrayList<>(changedFiles);
+    }
+
+    public List<File> getDeletedFiles() {
+        return deletedFiles;
+    }
+
+    private boolean isUnchanged(Path destinationPath, String hash) throws IOException {
+        String relativePath = relativize(destinationPath);
+        boolean produced = currentHashes.containsKey(relativePath);
+        String knownHash = produced ? currentHashes.get(relativePath) : previousHashes.get(relativePath);
+        String knownStamp = produced ? currentStamps.get(relativePath) : previousStamps.get(relativePath);
+        currentHashes.put(relativePath, hash);
+        if (hash.equals(knownHash) && isOnDisk(destinationPath, hash, knownStamp)) {
+            currentStamps.put(relativePath, stamp(destinationPath));
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     * The file is only hashed again when its size or modification time differs from the recorded stamp
+     */
+    private boolean isOnDisk(Path path, String hash, String knownStamp) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        if (stamp(path).equals(knownStamp) || hash.equals(hash(path))) {
+            return true;
+        }
+        LOG.info("File: {} was changed on disk since the previous run", path);
+        return false;
+    }
+
+    private static String stamp(Path path) throws IOException {
+        return Files.size(path) + ":" + Files.getLastModifiedTime(path).toMillis();
+    }
+
+    private String relativize(Path path) {
+        return rootPath.relativize(path.toAbsolutePath().normalize()).toString().replace(File.separatorChar, '/');
+    }
+
+    static String hash(Path path) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream input = new DigestInputStream(Files.newInputStream(path), digest)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (input.read(buffer) != -1) {
+                // digest is updated while reading
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    static String hash(byte[] content) {
+        return toHex(newDigest().digest(content));
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(HASH_ALGORITHM + " is not available", e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte value : bytes) {
+            hex.append(Character.forDigit((value >> 4) & 0xF, 16)).append(Character.forDigit(value & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
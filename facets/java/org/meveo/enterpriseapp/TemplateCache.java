@@ -0,0 +1,280 @@
+package org.meveo.enterpriseapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+import org.meveo.admin.exception.BusinessException;
+import org.meveo.commons.utils.ParamBean;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Local snapshots of the module-war-template repository, keyed by the commit of the template branch.
+ * <p>
+ * Only the template branch is fetched, into a bare repository kept in the cache directory, and only the files
+ * used by the generator (the template manifest and the files it lists) are written to the snapshot
+ * directory of a commit. Generations read the last good snapshot: when it is older than the configured TTL the
+ * remote branch is checked and fetched in the background on the managed executor, the snapshot is only built
+ * synchronously when no snapshot exists yet. Fetches of a repository are serialized by a per-repository lock. The remote can be any URL or path understood by git, such as a local bare repository.
+ */
+public class TemplateCache {
+    private static final Logger LOG = LoggerFactory.getLogger(TemplateCache.class);
+
+    static final String REMOTE_PROPERTY = "enterpriseapp.template.remote";
+    static final String BRANCH_PROPERTY = "enterpriseapp.template.branch";
+    static final String TTL_PROPERTY = "enterpriseapp.template.ttl";
+    static final String CACHE_DIRECTORY_PROPERTY = "enterpriseapp.template.cacheDirectory";
+
+    static final String DEFAULT_REMOTE = "https://github.com/meveo-org/module-war-template.git";
+    private static final String DEFAULT_BRANCH = "master";
+    private static final String DEFAULT_TTL_SECONDS = "300";
+    private static final String BARE_REPOSITORY = "repository.git";
+    private static final String SNAPSHOTS_DIRECTORY = "snapshots";
+    private static final String CURRENT_FILE = "current";
+    private static final String EXECUTOR_JNDI_NAME = "java:comp/DefaultManagedExecutorService";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final Map<String, Snapshot> SNAPSHOTS = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicBoolean> REFRESHING = new ConcurrentHashMap<>();
+    private static final Map<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    private final String remote;
+    private final String branch;
+    private final long ttlMillis;
+    private final Path cacheDirectory;
+
+    public TemplateCache(ParamBean config) {
+        this.remote = config.getProperty(REMOTE_PROPERTY, DEFAULT_REMOTE);
+        this.branch = config.getProperty(BRANCH_PROPERTY, DEFAULT_BRANCH);
+        this.ttlMillis = Long.parseLong(config.getProperty(TTL_PROPERTY, DEFAULT_TTL_SECONDS)) * 1000;
+        String defaultCacheDirectory = Paths
+                .get(System.getProperty("jboss.server.data.dir", System.getProperty("java.io.tmpdir")),
+                        "enterpriseapp-template-cache")
+                .toString();
+        this.cacheDirectory = Paths.get(config.getProperty(CACHE_DIRECTORY_PROPERTY, defaultCacheDirectory),
+                Integer.toHexString((remote + "#" + branch).hashCode())).toAbsolutePath();
+    }
+
+    /**
+     * @return the last good snapshot of the template branch, built synchronously on first use only
+     */
+    public Snapshot getSnapshot() throws BusinessException {
+        String key = cacheDirectory.toString();
+        Snapshot snapshot = SNAPSHOTS.computeIfAbsent(key, k -> readCurrentSnapshot());
+        if (snapshot == null) {
+            // concurrent first uses wait for a single fetch instead of writing the same repository
+            synchronized (getLock(key)) {
+                snapshot = SNAPSHOTS.computeIfAbsent(key, k -> readCurrentSnapshot());
+                if (snapshot == null) {
+                    LOG.info("No template snapshot for: {}, fetching branch: {}", remote, branch);
+                    try {
+                        snapshot = refresh(null);
+                    } catch (IOException | GitAPIException e) {
+                        throw new BusinessException("Failed to fetch module template from: " + remote, e);
+                    }
+                    SNAPSHOTS.put(key, snapshot);
+                }
+            }
+        } else if (System.currentTimeMillis() - snapshot.checkedAt > ttlMillis) {
+            refreshInBackground(key, snapshot);
+        }
+        return snapshot;
+    }
+
+    private void refreshInBackground(String key, Snapshot current) {
+        AtomicBoolean refreshing = REFRESHING.computeIfAbsent(key, k -> new AtomicBoolean());
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        Runnable refreshTask = () -> {
+            try {
+                synchronized (getLock(key)) {
+                    SNAPSHOTS.put(key, refresh(current));
+                }
+            } catch (Exception e) {
+                LOG.warn("Failed to refresh module template from: {}, keeping commit: {}", remote,
+                        current.commitId, e);
+            } finally {
+                refreshing.set(false);
+            }
+        };
+        try {
+            ExecutorService executor = InitialContext.doLookup(EXECUTOR_JNDI_NAME);
+            executor.submit(refreshTask);
+        } catch (NamingException | RuntimeException e) {
+            LOG.warn("Managed executor: {} not available, refreshing module template synchronously",
+                    EXECUTOR_JNDI_NAME);
+            refreshTask.run();
+        }
+    }
+
+    private static Object getLock(String key) {
+        return LOCKS.computeIfAbsent(key, k -> new Object());
+    }
+
+    /*
+     * Compare the remote branch head with the current snapshot, fetch and materialize it when it moved
+     */
+    private Snapshot refresh(Snapshot current) throws IOException, GitAPIException {
+        String branchRef = Constants.R_HEADS + branch;
+        Ref remoteRef = Git.lsRemoteRepository().setRemote(remote).setHeads(true).callAsMap().get(branchRef);
+        if (remoteRef == null) {
+            throw new IOException("Branch: " + branch + " not found in: " + remote);
+        }
+        String commitId = remoteRef.getObjectId().name();
+        if (current != null && current.commitId.equals(commitId)) {
+            LOG.info("Module template is up to date at commit: {}", commitId);
+            return new Snapshot(commitId, current.path, System.currentTimeMillis());
+        }
+
+        Path snapshotPath = cacheDirectory.resolve(SNAPSHOTS_DIRECTORY).resolve(commitId);
+        if (!Files.isDirectory(snapshotPath)) {
+            File bareDirectory = cacheDirectory.resolve(BARE_REPOSITORY).toFile();
+            try (Git git = bareDirectory.exists() ? Git.open(bareDirectory)
+                    : Git.init().setBare(true).setDirectory(bareDirectory).call()) {
+                LOG.info("Fetching branch: {} of: {}", branch, remote);
+                git.fetch().setRemote(remote).setRefSpecs(new RefSpec("+" + branchRef + ":" + branchRef)).call();
+                materialize(git.getRepository(), ObjectId.fromString(commitId), snapshotPath);
+            }
+        }
+        Files.write(cacheDirectory.resolve(CURRENT_FILE), commitId.getBytes(StandardCharsets.UTF_8));
+        removeOtherSnapshots(commitId, current != null ? current.commitId : null);
+        LOG.info("Module template snapshot: {}", snapshotPath);
+        return new Snapshot(commitId, snapshotPath, System.currentTimeMillis());
+    }
+
+    /*
+     * Write the template manifest and the files it lists, or the default template files, to a temporary
+     * directory moved in place once complete
+     */
+    private void materialize(Repository repository, ObjectId commitId, Path snapshotPath) throws IOException {
+        Path temporaryPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        FileUtils.deleteDirectory(temporaryPath.toFile());
+        Files.createDirectories(temporaryPath);
+
+        try (RevWalk revWalk = new RevWalk(repository)) {
+            RevCommit commit = revWalk.parseCommit(commitId);
+            Set<String> paths = new HashSet<>();
+            try (TreeWalk manifestWalk = TreeWalk.forPath(repository, TemplateStage.MANIFEST_FILE, commit.getTree())) {
+                if (manifestWalk != null) {
+                    byte[] manifest = repository.open(manifestWalk.getObjectId(0)).getBytes();
+                    paths.add(TemplateStage.MANIFEST_FILE);
+                    paths.addAll(OBJECT_MAPPER.readValue(manifest, TemplateStage.TemplateManifest.class).files
+                            .stream().map(file -> file.path).collect(Collectors.toList()));
+                }
+            }
+
+            int materializedFiles = 0;
+            try (TreeWalk treeWalk = new TreeWalk(repository)) {
+                treeWalk.addTree(commit.getTree());
+                treeWalk.setRecursive(true);
+                while (treeWalk.next()) {
+                    String path = treeWalk.getPathString();
+                    boolean used = paths.isEmpty() ? TemplateStage.isDefaultTemplateFile(treeWalk.getNameString())
+                            : paths.contains(path);
+                    if (used) {
+                        Path filePath = temporaryPath.resolve(path);
+                        Files.createDirectories(filePath.getParent());
+                        try (OutputStream output = Files.newOutputStream(filePath)) {
+                            repository.open(treeWalk.getObjectId(0)).copyTo(output);
+                        }
+                        materializedFiles++;
+                    }
+                }
+            }
+            LOG.info("Materialized {} template files of commit: {}", materializedFiles, commitId.name());
+        }
+
+        try {
+            Files.move(temporaryPath, snapshotPath, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporaryPath, snapshotPath);
+        }
+    }
+
+    /*
+     * The previous snapshot is kept as generations started before the refresh may still read it
+     */
+    private void removeOtherSnapshots(String commitId, String previousCommitId) {
+        Path snapshotsPath = cacheDirectory.resolve(SNAPSHOTS_DIRECTORY);
+        try (DirectoryStream<Path> snapshots = Files.newDirectoryStream(snapshotsPath)) {
+            for (Path snapshot : snapshots) {
+                String snapshotName = snapshot.getFileName().toString();
+                if (!snapshotName.equals(commitId) && !snapshotName.equals(previousCommitId)) {
+                    FileUtils.deleteDirectory(snapshot.toFile());
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to remove old template snapshots in: {}", snapshotsPath, e);
+        }
+    }
+
+    /*
+     * Last good snapshot left on disk by a previous run, considered stale so it is checked on first use
+     */
+    private Snapshot readCurrentSnapshot() {
+        Path currentPath = cacheDirectory.resolve(CURRENT_FILE);
+        try {
+            if (Files.isRegularFile(currentPath)) {
+                String commitId = new String(Files.readAllBytes(currentPath), StandardCharsets.UTF_8).trim();
+                Path snapshotPath = cacheDirectory.resolve(SNAPSHOTS_DIRECTORY).resolve(commitId);
+                if (Files.isDirectory(snapshotPath)) {
+                    return new Snapshot(commitId, snapshotPath, 0);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to read template snapshot: {}", currentPath, e);
+        }
+        return null;
+    }
+
+    public static class Snapshot {
+        private final String commitId;
+        private final Path path;
+        private final long checkedAt;
+
+        private Snapshot(String commitId, Path path, long checkedAt) {
+            this.commitId = commitId;
+            this.path = path;
+            this.checkedAt = checkedAt;
+        }
+
+        public String getCommitId() {
+            return commitId;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.meveo.enterpriseapp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Files of the module-war-template repository rendered into every module WAR repository.
+ * <p>
+ * The files to render and the placeholders they contain are listed in a module-war-template.json manifest at
+ * the root of the template repository:
+ * <pre>
+ * { "files": [ { "path": "pom.xml", "placeholders": [ "__MODULE_ARTIFACT_ID__", "&lt;!--REPOSITORY_LIST--&gt;" ] } ] }
+ * </pre>
+ * Without a manifest, the files historically used by the generator are located once in the template
+ * checkout. Parsed templates are cached by template commit.
+ */
+public class TemplateStage {
+    private static final Logger LOG = LoggerFactory.getLogger(TemplateStage.class);
+
+    public static final String MANIFEST_FILE = "module-war-template.json";
+
+    public static final String MODULE_ARTIFACT_ID = "__MODULE_ARTIFACT_ID__";
+    public static final String MODULE_VERSION = "__MODULE_VERSION__";
+    public static final String MEVEO_VERSION = "__MEVEO_VERSION__";
+    public static final String REPOSITORY_LIST = "<!--REPOSITORY_LIST-->";
+    public static final String MODULE_CODE = "__MODULE_CODE__";
+    public static final String WILDFLY_PATH = "__WILDFLY_PATH__";
+
+    private static final Map<String, List<String>> DEFAULT_TEMPLATE_FILES = new LinkedHashMap<>();
+    static {
+        DEFAULT_TEMPLATE_FILES.put("CustomEndpointResource.java", Collections.emptyList());
+        DEFAULT_TEMPLATE_FILES.put("beans.xml", Collections.emptyList());
+        DEFAULT_TEMPLATE_FILES.put("pom.xml",
+                Arrays.asList(MODULE_ARTIFACT_ID, MODULE_VERSION, MEVEO_VERSION, REPOSITORY_LIST));
+        DEFAULT_TEMPLATE_FILES.put("moduledeployment.sh", Arrays.asList(MODULE_CODE, WILDFLY_PATH));
+    }
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final Map<String, TemplateStage> CACHE = new ConcurrentHashMap<>();
+
+    private final String commitId;
+    private final List<Template> templates;
+
+    private TemplateStage(String commitId, List<Template> templates) {
+        this.commitId = commitId;
+        this.templates = templates;
+    }
+
+    /**
+     * @param templatePath template files, such as a {@link TemplateCache} snapshot
+     * @param commitId     commit the template files come from
+     * @return the parsed templates of the commit
+     */
+    public static TemplateStage load(Path templatePath, String commitId) throws IOException {
+        if (commitId == null) {
+            LOG.info("No commit found for template: {}, templates are not cached", templatePath);
+            return parse(templatePath, null);
+        }
+        String cacheKey = templatePath.toAbsolutePath() + "@" + commitId;
+        TemplateStage templateStage = CACHE.get(cacheKey);
+        if (templateStage == null) {
+            templateStage = parse(templatePath, commitId);
+            CACHE.keySet().removeIf(key -> key.startsWith(templatePath.toAbsolutePath() + "@"));
+            CACHE.put(cacheKey, templateStage);
+        } else {
+            LOG.info("Using cached templates of commit: {}", commitId);
+        }
+        return templateStage;
+    }
+
+    public String getCommitId() {
+        return commitId;
+    }
+
+    /**
+     * @param values placeholder values
+     * @return the rendered files, with paths relative to the module WAR repository
+     */
+    public List<GeneratedFile> render(Map<String, String> values) {
+        List<GeneratedFile> renderedFiles = new ArrayList<>(templates.size());
+        for (Template template : templates) {
+            String content = template.content;
+            for (String placeholder : template.placeholders) {
+                content = content.replace(placeholder, Objects.toString(values.get(placeholder), ""));
+            }
+            renderedFiles.add(new GeneratedFile(template.path, content));
+        }
+        return renderedFiles;
+    }
+
+    static boolean isDefaultTemplateFile(String fileName) {
+        return DEFAULT_TEMPLATE_FILES.containsKey(fileName);
+    }
+
+    private static TemplateStage parse(Path templatePath, String commitId) throws IOException {
+        Path manifestPath = templatePath.resolve(MANIFEST_FILE);
+        Map<String, List<String>> templateFiles = new LinkedHashMap<>();
+        if (Files.isRegularFile(manifestPath)) {
+            TemplateManifest manifest = OBJECT_MAPPER.readValue(manifestPath.toFile(), TemplateManifest.class);
+            for (TemplateManifest.TemplateFile templateFile : manifest.files) {
+                templateFiles.put(templateFile.path, templateFile.placeholders);
+            }
+            LOG.info("Loaded template manifest: {}", manifestPath);
+        } else {
+            templateFiles.putAll(locateDefaultTemplateFiles(templatePath));
+            LOG.info("No template manifest in: {}, using default template files", templatePath);
+        }
+
+        List<Template> templates = new ArrayList<>();
+        for (Map.Entry<String, List<String>> templateFile : templateFiles.entrySet()) {
+            String content = new String(Files.readAllBytes(templatePath.resolve(templateFile.getKey())),
+                    StandardCharsets.UTF_8);
+            templates.add(new Template(templateFile.getKey(), content, templateFile.getValue()));
+        }
+        LOG.info("Parsed {} templates: {}", templates.size(), templateFiles.keySet());
+        return new TemplateStage(commitId, templates);
+    }
+
+    private static Map<String, List<String>> locateDefaultTemplateFiles(Path templatePath) throws IOException {
+        Map<String, List<String>> templateFiles = new LinkedHashMap<>();
+        try (Stream<Path> sourceStream = Files.walk(templatePath)) {
+            List<Path> sources = sourceStream.filter(path -> !templatePath.relativize(path).startsWith(".git"))
+                                             .filter(Files::isRegularFile)
+                                             .filter(path -> DEFAULT_TEMPLATE_FILES.containsKey(path.getFileName().toString()))
+                                             .sorted()
+                                             .collect(Collectors.toList());
+            for (Path source : sources) {
+                String relativePath = templatePath.relativize(source).toString().replace('\\', '/');
+                templateFiles.put(relativePath, DEFAULT_TEMPLATE_FILES.get(source.getFileName().toString()));
+            }
+        }
+        return templateFiles;
+    }
+
+    private static class Template {
+        private final String path;
+        private final String content;
+        private final List<String> placeholders;
+
+        private Template(String path, String content, List<String> placeholders) {
+            this.path = path;
+            this.content = content;
+            this.placeholders = placeholders != null ? placeholders : Collections.emptyList();
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static class TemplateManifest {
+        public List<TemplateFile> files = new ArrayList<>();
+
+        @JsonIgnoreProperties(ignoreUnknown = true)
+        static class TemplateFile {
+            public String path;
+            public List<String> placeholders = new ArrayList<>();
+        }
+    }
+}
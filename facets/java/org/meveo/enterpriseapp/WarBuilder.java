@@ -0,0 +1,246 @@
+package org.meveo.enterpriseapp;
+
+import static org.apache.commons.lang3.StringUtils.isEmpty;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+import org.meveo.admin.exception.BusinessException;
+import org.meveo.commons.utils.ParamBean;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.shared.invoker.DefaultInvocationRequest;
+import org.apache.maven.shared.invoker.DefaultInvoker;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.InvocationResult;
+import org.apache.maven.shared.invoker.MavenInvocationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the Maven build of a module WAR project.
+ * <p>
+ * In {@link Mode#INVOKER} mode a fresh Maven JVM is forked for every build. In {@link Mode#DAEMON} mode
+ * the build is sent to a Maven Daemon (mvnd) client, which hands it to a warm, long-lived build server
+ * shared by every module and every generation. The daemon stops by itself after the configured idle
+ * timeout.
+ * <p>
+ * In offline mode dependencies are only resolved from the configured local repository, which is seeded
+ * once per project pom with dependency:go-offline. When a mirror URL is configured (typically a file://
+ * repository standing in for the remote ones in air-gapped environments), every repository declared by the
+ * project is redirected to it.
+ */
+public class WarBuilder {
+    private static final Logger LOG = LoggerFactory.getLogger(WarBuilder.class);
+
+    public enum Mode {
+        INVOKER, DAEMON
+    }
+
+    static final String BUILD_MODE_PROPERTY = "enterpriseapp.build.mode";
+    static final String MVND_HOME_PROPERTY = "enterpriseapp.build.mvndHome";
+    static final String IDLE_TIMEOUT_PROPERTY = "enterpriseapp.build.idleTimeout";
+    static final String OFFLINE_PROPERTY = "enterpriseapp.build.offline";
+    static final String LOCAL_REPOSITORY_PROPERTY = "enterpriseapp.build.localRepository";
+    static final String MIRROR_URL_PROPERTY = "enterpriseapp.build.mirrorUrl";
+
+    private static final String DEFAULT_IDLE_TIMEOUT = "30m";
+    private static final String DIVIDER = StringUtils.repeat("-", 15);
+    private static final String GO_OFFLINE_GOAL = "org.apache.maven.plugins:maven-dependency-plugin:3.3.0:go-offline";
+    private static final String SEED_MARKER_DIRECTORY = ".enterpriseapp-seeded";
+    private static final String SETTINGS_FILE = "enterpriseapp-settings.xml";
+    private static final List<String> RESOLUTION_ERRORS = Arrays.asList("offline mode",
+            "has not been downloaded", "Could not resolve", "Could not find artifact", "Non-resolvable");
+
+    private final Mode mode;
+    private final String mvnHome;
+    private final String mvndHome;
+    private final String idleTimeout;
+    private final boolean offline;
+    private final String localRepository;
+    private final String mirrorUrl;
+
+    public WarBuilder(ParamBean config) throws BusinessException {
+        this(getMode(config), config);
+    }
+
+    public WarBuilder(Mode mode, ParamBean config) {
+        this.mode = mode;
+        this.mvnHome = resolveMavenHome();
+        this.mvndHome = config.getProperty(MVND_HOME_PROPERTY, System.getenv("MVND_HOME"));
+        this.idleTimeout = config.getProperty(IDLE_TIMEOUT_PROPERTY, DEFAULT_IDLE_TIMEOUT);
+        this.offline = Boolean.parseBoolean(config.getProperty(OFFLINE_PROPERTY, "false"));
+        this.localRepository = config.getProperty(LOCAL_REPOSITORY_PROPERTY,
+                String.join(File.separator, System.getProperty("user.home"), ".m2", "repository"));
+        this.mirrorUrl = config.getProperty(MIRROR_URL_PROPERTY, null);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    private static Mode getMode(ParamBean config) throws BusinessException {
+        String buildMode = config.getProperty(BUILD_MODE_PROPERTY, Mode.INVOKER.name());
+        try {
+            return Mode.valueOf(buildMode.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new BusinessException("Unknown build mode: " + buildMode + " in " + BUILD_MODE_PROPERTY
+                    + ", expected one of: " + Arrays.toString(Mode.values()));
+        }
+    }
+
+    /**
+     * Run the given goals on the pom.xml of a project directory
+     *
+     * @param projectDirectory directory containing the pom.xml
+     * @param goals            Maven goals to run
+     */
+    public void build(String projectDirectory, String... goals) throws BusinessException {
+        DefaultInvoker invoker = createInvoker();
+        InvocationRequest request = createRequest(projectDirectory, goals);
+        if (offline) {
+            File localRepositoryDirectory = new File(localRepository);
+            File settingsFile = isEmpty(mirrorUrl) ? null : writeMirrorSettings(localRepositoryDirectory);
+            seedLocalRepository(invoker, projectDirectory, localRepositoryDirectory, settingsFile);
+            configureRepositories(request, localRepositoryDirectory, settingsFile);
+            request.setOffline(true);
+            LOG.info("Offline build using local repository: {}", localRepositoryDirectory.getAbsolutePath());
+        }
+        execute(invoker, request, goals, projectDirectory);
+    }
+
+    private DefaultInvoker createInvoker() throws BusinessException {
+        DefaultInvoker invoker = new DefaultInvoker();
+        if (mode == Mode.DAEMON) {
+            if (isEmpty(mvndHome)) {
+                throw new BusinessException("Failed to retrieve Maven Daemon home path, set " + MVND_HOME_PROPERTY
+                        + " or MVND_HOME");
+            }
+            File mvndExecutable = new File(mvndHome, "bin/mvnd");
+            LOG.info("Maven Daemon client: {}, idle timeout: {}", mvndExecutable, idleTimeout);
+            invoker.setMavenExecutable(mvndExecutable);
+        } else {
+            if (isEmpty(mvnHome)) {
+                throw new BusinessException("Failed to retrieve Maven home path");
+            }
+            LOG.info("Maven Home path: {}", mvnHome);
+            invoker.setMavenHome(new File(mvnHome));
+        }
+        return invoker;
+    }
+
+    private InvocationRequest createRequest(String projectDirectory, String... goals) {
+        InvocationRequest request = new DefaultInvocationRequest();
+        request.setBaseDirectory(new File(projectDirectory));
+        request.setGoals(Arrays.asList(goals));
+        if (mode == Mode.DAEMON) {
+            request.setBatchMode(true);
+            Properties properties = new Properties();
+            properties.setProperty("mvnd.idleTimeout", idleTimeout);
+            request.setProperties(properties);
+        }
+        return request;
+    }
+
+    private void configureRepositories(InvocationRequest request, File localRepositoryDirectory, File settingsFile) {
+        request.setLocalRepositoryDirectory(localRepositoryDirectory);
+        if (settingsFile != null) {
+            request.setUserSettingsFile(settingsFile);
+        }
+    }
+
+    /*
+     * Resolve every dependency and plugin of the project once while online (or against the mirror), the
+     * marker is keyed by the pom content so a dependency change triggers a new seed
+     */
+    private void seedLocalRepository(DefaultInvoker invoker, String projectDirectory, File localRepositoryDirectory,
+            File settingsFile) throws BusinessException {
+        Path markerPath;
+        try {
+            String pomHash = SourceManifest.hash(Paths.get(projectDirectory, "pom.xml"));
+            markerPath = localRepositoryDirectory.toPath().resolve(SEED_MARKER_DIRECTORY).resolve(pomHash);
+            if (Files.exists(markerPath)) {
+                return;
+            }
+        } catch (IOException e) {
+            throw new BusinessException("Failed to read pom.xml of: " + projectDirectory, e);
+        }
+
+        LOG.info("Seeding local repository: {}", localRepositoryDirectory.getAbsolutePath());
+        InvocationRequest seedRequest = createRequest(projectDirectory, GO_OFFLINE_GOAL);
+        configureRepositories(seedRequest, localRepositoryDirectory, settingsFile);
+        execute(invoker, seedRequest, new String[] { GO_OFFLINE_GOAL }, projectDirectory);
+
+        try {
+            Files.createDirectories(markerPath.getParent());
+            Files.createFile(markerPath);
+        } catch (IOException e) {
+            throw new BusinessException("Failed to mark local repository as seeded", e);
+        }
+    }
+
+    private File writeMirrorSettings(File localRepositoryDirectory) throws BusinessException {
+        String settings = String.join(System.lineSeparator(),
+                "<settings xmlns=\"http://maven.apache.org/SETTINGS/1.0.0\">",
+                "  <localRepository>" + localRepositoryDirectory.getAbsolutePath() + "</localRepository>",
+                "  <mirrors>",
+                "    <mirror>",
+                "      <id>enterpriseapp-mirror</id>",
+                "      <mirrorOf>*</mirrorOf>",
+                "      <url>" + mirrorUrl + "</url>",
+                "    </mirror>",
+                "  </mirrors>",
+                "</settings>");
+        File settingsFile = new File(localRepositoryDirectory.getAbsoluteFile().getParentFile(), SETTINGS_FILE);
+        try {
+            Files.createDirectories(settingsFile.getParentFile().toPath());
+            Files.write(settingsFile.toPath(), settings.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new BusinessException("Failed to write Maven settings: " + settingsFile.getAbsolutePath(), e);
+        }
+        LOG.info("Redirecting every repository to mirror: {}", mirrorUrl);
+        return settingsFile;
+    }
+
+    private void execute(DefaultInvoker invoker, InvocationRequest request, String[] goals, String projectDirectory)
+            throws BusinessException {
+        List<String> resolutionErrors = new ArrayList<>();
+        request.setOutputHandler(line -> {
+            LOG.info(line);
+            if (line.contains("[ERROR]") && RESOLUTION_ERRORS.stream().anyMatch(line::contains)) {
+                resolutionErrors.add(line);
+            }
+        });
+
+        InvocationResult result;
+        try {
+            LOG.info(DIVIDER + " Executing maven {} using pom.xml in: {} " + DIVIDER, goals, projectDirectory);
+            result = invoker.execute(request);
+        } catch (MavenInvocationException e) {
+            LOG.error("Failed to mvn package for maven pom.xml", e);
+            throw new BusinessException("Failed creating file." + e.getMessage());
+        }
+        if (result.getExitCode() != 0) {
+            if (request.isOffline() && !resolutionErrors.isEmpty()) {
+                throw new BusinessException("Offline build could not resolve artifacts from local repository: "
+                        + localRepository + ". Seed it again or configure " + MIRROR_URL_PROPERTY + ". "
+                        + String.join(System.lineSeparator(), resolutionErrors));
+            }
+            throw new BusinessException("Maven build failed with exit code: " + result.getExitCode());
+        }
+    }
+
+    private static String resolveMavenHome() {
+        if (System.getenv("MAVEN_HOME") != null) {
+            return System.getenv("MAVEN_HOME");
+        } else if (System.getenv("M2_HOME") != null) {
+            return System.getenv("M2_HOME");
+        }
+        return System.getenv("MVN_HOME");
+    }
+}
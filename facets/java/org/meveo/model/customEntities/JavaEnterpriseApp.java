@@ -2,6 +2,7 @@ package org.meveo.model.customEntities;
 
 import org.meveo.model.CustomEntity;
 import java.io.Serializable;
+import java.time.Instant;
 import java.util.List;
 import org.meveo.model.persistence.DBStorageType;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -24,6 +25,22 @@ public class JavaEnterpriseApp implements CustomEntity, Serializable {
     @JsonProperty(required = true)
     private String code;
 
+    private String jobType;
+
+    private String jobState;
+
+    private String jobPhase;
+
+    private Instant jobStartDate;
+
+    private Instant jobEndDate;
+
+    private String jobTimings;
+
+    private String jobCounters;
+
+    private String lastResult;
+
     @Override()
     public String getUuid() {
         return uuid;
@@ -49,6 +66,70 @@ public class JavaEnterpriseApp implements CustomEntity, Serializable {
         this.code = code;
     }
 
+    public String getJobType() {
+        return jobType;
+    }
+
+    public void setJobType(String jobType) {
+        this.jobType = jobType;
+    }
+
+    public String getJobState() {
+        return jobState;
+    }
+
+    public void setJobState(String jobState) {
+        this.jobState = jobState;
+    }
+
+    public String getJobPhase() {
+        return jobPhase;
+    }
+
+    public void setJobPhase(String jobPhase) {
+        this.jobPhase = jobPhase;
+    }
+
+    public Instant getJobStartDate() {
+        return jobStartDate;
+    }
+
+    public void setJobStartDate(Instant jobStartDate) {
+        this.jobStartDate = jobStartDate;
+    }
+
+    public Instant getJobEndDate() {
+        return jobEndDate;
+    }
+
+    public void setJobEndDate(Instant jobEndDate) {
+        this.jobEndDate = jobEndDate;
+    }
+
+    public String getJobTimings() {
+        return jobTimings;
+    }
+
+    public void setJobTimings(String jobTimings) {
+        this.jobTimings = jobTimings;
+    }
+
+    public String getJobCounters() {
+        return jobCounters;
+    }
+
+    public void setJobCounters(String jobCounters) {
+        this.jobCounters = jobCounters;
+    }
+
+    public String getLastResult() {
+        return lastResult;
+    }
+
+    public void setLastResult(String lastResult) {
+        this.lastResult = lastResult;
+    }
+
     @Override()
     public String getCetCode() {
         return "JavaEnterpriseApp";
@@ -0,0 +1,135 @@
+package org.meveo.model.customEntities;
+
+import org.meveo.model.CustomEntity;
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.List;
+import org.meveo.model.persistence.DBStorageType;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+public class JavaEnterpriseAppRun implements CustomEntity, Serializable {
+
+    public JavaEnterpriseAppRun() {
+    }
+
+    public JavaEnterpriseAppRun(String uuid) {
+        this.uuid = uuid;
+    }
+
+    private String uuid;
+
+    @JsonIgnore()
+    private DBStorageType storages;
+
+    private JavaEnterpriseApp javaEnterpriseApp;
+
+    private String jobType;
+
+    private String jobState;
+
+    private Instant startDate;
+
+    private Instant endDate;
+
+    private Long durationMillis;
+
+    private String timings;
+
+    private String counters;
+
+    private String result;
+
+    @Override()
+    public String getUuid() {
+        return uuid;
+    }
+
+    public void setUuid(String uuid) {
+        this.uuid = uuid;
+    }
+
+    public DBStorageType getStorages() {
+        return storages;
+    }
+
+    public void setStorages(DBStorageType storages) {
+        this.storages = storages;
+    }
+
+    public JavaEnterpriseApp getJavaEnterpriseApp() {
+        return javaEnterpriseApp;
+    }
+
+    public void setJavaEnterpriseApp(JavaEnterpriseApp javaEnterpriseApp) {
+        this.javaEnterpriseApp = javaEnterpriseApp;
+    }
+
+    public String getJobType() {
+        return jobType;
+    }
+
+    public void setJobType(String jobType) {
+        this.jobType = jobType;
+    }
+
+    public String getJobState() {
+        return jobState;
+    }
+
+    public void setJobState(String jobState) {
+        this.jobState = jobState;
+    }
+
+    public Instant getStartDate() {
+        return startDate;
+    }
+
+    public void setStartDate(Instant startDate) {
+        this.startDate = startDate;
+    }
+
+    public Instant getEndDate() {
+        return endDate;
+    }
+
+    public void setEndDate(Instant endDate) {
+        this.endDate = endDate;
+    }
+
+    public Long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public void setDurationMillis(Long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    public String getTimings() {
+        return timings;
+    }
+
+    public void setTimings(String timings) {
+        this.timings = timings;
+    }
+
+    public String getCounters() {
+        return counters;
+    }
+
+    public void setCounters(String counters) {
+        this.counters = counters;
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public void setResult(String result) {
+        this.result = result;
+    }
+
+    @Override()
+    public String getCetCode() {
+        return "JavaEnterpriseAppRun";
+    }
+}